@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.exception;
+
+/**
+ * 等待其他线程加载缓存数据超时。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class CacheLoadTimeoutException extends RuntimeException {
+	private static final long serialVersionUID = 4619250183372806512L;
+
+	public CacheLoadTimeoutException(String message) {
+		super(message);
+	}
+
+	public CacheLoadTimeoutException(String message, Throwable throwable) {
+		super(message, throwable);
+	}
+}
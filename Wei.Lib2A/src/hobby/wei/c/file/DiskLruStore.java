@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import hobby.wei.c.L;
+
+/**
+ * 有容量上限、按LRU淘汰的磁盘键值存储，用作内存缓存之下的第二级缓存。
+ * <p>
+ * 实现策略：
+ * <ul>
+ * <li>每个key对应目录下的一个文件，写入时先写<code>key.tmp</code>并sync，再rename为正式文件，即原子提交；</li>
+ * <li>所有的变更以追加的方式记录在journal里（DIRTY/CLEAN/REMOVE/READ），启动时回放journal重建索引，
+ * 只有DIRTY而没有CLEAN的条目视为未完成的写入，连同其文件一并删除，因此进程在任何时刻崩溃都不会读到半截数据；</li>
+ * <li>journal中的冗余记录过多时，在临时文件中重写一份精简的journal，再通过rename替换，替换过程同样是崩溃安全的。</li>
+ * </ul>
+ * key必须匹配<code>[a-z0-9_-]{1,120}</code>，一般用md5等摘要。本类是线程安全的，但不支持多个进程同时打开同一个目录。
+ * <p>
+ * 目录可以使用{@link FStoreLoc#getTempCacheDir(android.content.Context, FStoreLoc.DirLevel)}
+ * 或{@link FStoreLoc#getImagesCacheDir(android.content.Context, FStoreLoc.DirLevel)}下的子目录。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class DiskLruStore {
+	private static final String JOURNAL			= "journal";
+	private static final String JOURNAL_TMP		= "journal.tmp";
+	private static final String JOURNAL_BKP		= "journal.bkp";
+	private static final String MAGIC			= "hobby.wei.c.DiskLruStore";
+	private static final String VERSION			= "1";
+	private static final String TMP_SUFFIX		= ".tmp";
+	private static final String CHARSET			= "UTF-8";
+
+	private static final String CLEAN			= "CLEAN";
+	private static final String DIRTY			= "DIRTY";
+	private static final String REMOVE			= "REMOVE";
+	private static final String READ			= "READ";
+
+	private static final Pattern KEY_PATTERN	= Pattern.compile("[a-z0-9_-]{1,120}");
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	private final File mDir;
+	private final int mAppVersion;
+	private final long mMaxSize;
+	/**key -> 文件长度，按访问顺序排列**/
+	private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+	private long mSize;
+	private int mRedundantOpCount;
+	private Writer mJournalWriter;
+
+	/**
+	 * @param dir			存储目录，最好是专用的，因为本类会删除其中不认识的临时文件
+	 * @param appVersion	数据格式版本，变更之后旧的数据将全部清除
+	 * @param maxSize		最多占用的字节数
+	 */
+	public static DiskLruStore open(File dir, int appVersion, long maxSize) throws IOException {
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+		final DiskLruStore store = new DiskLruStore(dir, appVersion, maxSize);
+		final File journal = new File(dir, JOURNAL);
+		final File backup = new File(dir, JOURNAL_BKP);
+		if (backup.exists()) {
+			// 重写journal的过程中崩溃了。
+			if (journal.exists()) backup.delete();
+			else backup.renameTo(journal);
+		}
+		if (journal.exists()) {
+			try {
+				// 末尾有写了一半的行时不能接着追加，否则会与下一条记录连成一行。
+				if (store.readJournal(journal)) store.rebuildJournal();
+				else store.mJournalWriter = newWriter(journal, true);
+				// 有了写入器之后再淘汰，淘汰的记录才会写入journal.
+				store.trimToSize();
+				return store;
+			} catch (IOException e) {
+				L.w(DiskLruStore.class, e, "journal损坏，清除全部数据后重建");
+				FileUtils.deleteFileOrDir(dir, null, false);
+				store.mEntries.clear();
+				store.mSize = 0;
+			}
+		}
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("无法创建目录:" + dir);
+		store.rebuildJournal();
+		return store;
+	}
+
+	private DiskLruStore(File dir, int appVersion, long maxSize) {
+		mDir = dir;
+		mAppVersion = appVersion;
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * @return 不存在或读取失败返回null.
+	 */
+	public synchronized byte[] get(String key) {
+		checkKey(key);
+		if (mJournalWriter == null || !mEntries.containsKey(key)) return null;
+		final File file = new File(mDir, key);
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+			final byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			mRedundantOpCount++;
+			// READ记录只影响重启后的LRU顺序，不需要立即flush.
+			mJournalWriter.write(READ + ' ' + key + '\n');
+			compactIfNeeded();
+			return out.toByteArray();
+		} catch (IOException e) {
+			L.e(DiskLruStore.class, e);
+			removeInner(key);
+			return null;
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * 原子地写入一条数据：要么是完整的新值，要么仍是旧值。
+	 */
+	public synchronized boolean put(String key, byte[] data) {
+		checkKey(key);
+		if (mJournalWriter == null) return false;
+		if (data.length > mMaxSize) {
+			remove(key);
+			return false;
+		}
+		final File tmp = new File(mDir, key + TMP_SUFFIX);
+		final File file = new File(mDir, key);
+		FileOutputStream out = null;
+		try {
+			mJournalWriter.write(DIRTY + ' ' + key + '\n');
+			mJournalWriter.flush();
+			out = new FileOutputStream(tmp);
+			out.write(data);
+			out.flush();
+			out.getFD().sync();
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) throw new IOException("rename失败:" + tmp);
+			final Long old = mEntries.put(key, (long) data.length);
+			if (old != null) {
+				mSize -= old;
+				mRedundantOpCount++;
+			}
+			mSize += data.length;
+			mRedundantOpCount++;	//DIRTY
+			mJournalWriter.write(CLEAN + ' ' + key + ' ' + data.length + '\n');
+			mJournalWriter.flush();
+			trimToSize();
+			compactIfNeeded();
+			return true;
+		} catch (IOException e) {
+			L.e(DiskLruStore.class, e);
+			tmp.delete();
+			removeInner(key);
+			return false;
+		} finally {
+			if (out != null) try { out.close(); } catch (IOException e) {}
+		}
+	}
+
+	public synchronized boolean remove(String key) {
+		checkKey(key);
+		return removeInner(key);
+	}
+
+	public synchronized boolean contains(String key) {
+		checkKey(key);
+		return mEntries.containsKey(key);
+	}
+
+	/**清除全部数据**/
+	public synchronized void clear() {
+		for (String key : new ArrayList<String>(mEntries.keySet())) {
+			removeInner(key);
+		}
+	}
+
+	/**当前占用的字节数**/
+	public synchronized long size() {
+		return mSize;
+	}
+
+	public long maxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized void flush() {
+		if (mJournalWriter == null) return;
+		try {
+			mJournalWriter.flush();
+		} catch (IOException e) {
+			L.e(DiskLruStore.class, e);
+		}
+	}
+
+	public synchronized void close() {
+		if (mJournalWriter == null) return;
+		try {
+			mJournalWriter.close();
+		} catch (IOException e) {
+			L.e(DiskLruStore.class, e);
+		}
+		mJournalWriter = null;
+	}
+
+	private boolean removeInner(String key) {
+		final Long length = mEntries.remove(key);
+		new File(mDir, key).delete();
+		if (length == null) return false;
+		mSize -= length;
+		mRedundantOpCount++;
+		if (mJournalWriter != null) {
+			try {
+				mJournalWriter.write(REMOVE + ' ' + key + '\n');
+				mJournalWriter.flush();
+			} catch (IOException e) {
+				L.e(DiskLruStore.class, e);
+			}
+		}
+		compactIfNeeded();
+		return true;
+	}
+
+	private void trimToSize() {
+		while (mSize > mMaxSize) {
+			final Map.Entry<String, Long> eldest = mEntries.entrySet().iterator().next();
+			removeInner(eldest.getKey());
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+			try {
+				rebuildJournal();
+			} catch (IOException e) {
+				L.e(DiskLruStore.class, e);
+			}
+		}
+	}
+
+	/**
+	 * @return 最后一行是否不完整（没有换行符）。
+	 */
+	private boolean readJournal(File journal) throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), CHARSET));
+		final boolean truncated;
+		try {
+			if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())
+					|| !Integer.toString(mAppVersion).equals(reader.readLine()) || !"".equals(reader.readLine())) {
+				throw new IOException("journal头部不匹配");
+			}
+			final Map<String, Boolean> dirty = new LinkedHashMap<String, Boolean>();
+			final StringBuilder line = new StringBuilder();
+			int lineCount = 0;
+			int c;
+			while ((c = reader.read()) != -1) {
+				if (c != '\n') {
+					line.append((char) c);
+					continue;
+				}
+				lineCount++;
+				readJournalLine(line.toString(), dirty);
+				line.setLength(0);
+			}
+			// 最后一行没有换行符，是崩溃时写了一半的（如"CLEAN key 12"只写了"CLEAN key 1"），不可信。
+			truncated = line.length() > 0;
+			// 未完成的写入：临时文件一定不完整，正式文件可能已被rename但没有CLEAN记录，都不可信。
+			for (String key : dirty.keySet()) {
+				new File(mDir, key + TMP_SUFFIX).delete();
+				final Long old = mEntries.remove(key);
+				if (old != null) mSize -= old;
+				new File(mDir, key).delete();
+			}
+			mRedundantOpCount = lineCount - mEntries.size();
+		} finally {
+			reader.close();
+		}
+		return truncated;
+	}
+
+	private void readJournalLine(String line, Map<String, Boolean> dirty) {
+		final String[] parts = line.split(" ");
+		if (parts.length < 2 || !KEY_PATTERN.matcher(parts[1]).matches()) return;
+		final String key = parts[1];
+		if (CLEAN.equals(parts[0]) && parts.length == 3) {
+			final long length;
+			try {
+				length = Long.parseLong(parts[2]);
+			} catch (NumberFormatException e) {
+				return;
+			}
+			final Long old = mEntries.put(key, length);
+			if (old != null) mSize -= old;
+			mSize += length;
+			dirty.remove(key);
+		} else if (DIRTY.equals(parts[0])) {
+			dirty.put(key, true);
+		} else if (REMOVE.equals(parts[0])) {
+			final Long old = mEntries.remove(key);
+			if (old != null) mSize -= old;
+		} else if (READ.equals(parts[0])) {
+			mEntries.get(key);
+		}
+	}
+
+	/**
+	 * 新journal写入临时文件并落盘之后才替换旧的。失败时旧的journal和写入器保持不变，可以继续追加。
+	 */
+	private void rebuildJournal() throws IOException {
+		final File journal = new File(mDir, JOURNAL);
+		final File tmp = new File(mDir, JOURNAL_TMP);
+		final File backup = new File(mDir, JOURNAL_BKP);
+		final FileOutputStream out = new FileOutputStream(tmp, false);
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, CHARSET));
+		try {
+			writer.write(MAGIC + '\n' + VERSION + '\n' + mAppVersion + "\n\n");
+			for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+				writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+			}
+			writer.flush();
+			out.getFD().sync();
+		} finally {
+			writer.close();
+		}
+		// 在rename之前打开，rename不会使已打开的文件失效，之后就没有会失败的步骤了。
+		final Writer newWriter = newWriter(tmp, true);
+		if (journal.exists() && !journal.renameTo(backup)) {
+			closeQuietly(newWriter);
+			tmp.delete();
+			throw new IOException("rename失败:" + journal);
+		}
+		if (!tmp.renameTo(journal)) {
+			closeQuietly(newWriter);
+			backup.renameTo(journal);
+			throw new IOException("rename失败:" + tmp);
+		}
+		backup.delete();
+		// 旧写入器中的记录都已包含在新journal中。
+		if (mJournalWriter != null) closeQuietly(mJournalWriter);
+		mJournalWriter = newWriter;
+		mRedundantOpCount = 0;
+	}
+
+	private static void closeQuietly(Writer writer) {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			L.e(DiskLruStore.class, e);
+		}
+	}
+
+	private static Writer newWriter(File file, boolean append) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), CHARSET));
+	}
+
+	private static void checkKey(String key) {
+		if (key == null || !KEY_PATTERN.matcher(key).matches())
+			throw new IllegalArgumentException("key必须匹配[a-z0-9_-]{1,120}: " + key);
+	}
+}
@@ -24,15 +24,14 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import android.content.Context;
 
 import hobby.wei.c.L;
 import hobby.wei.c.exception.FileCreateFailureException;
+import hobby.wei.c.tools.WeakRegistry;
 
 /**
  * 对读写文件进行了简单版本控制的工具类，用来解决进程内频繁读写同一个文件时，易产生脏数据等冲突问题。
@@ -46,7 +45,8 @@ import hobby.wei.c.exception.FileCreateFailureException;
  */
 public class FileVersioned {
 	private static final String CHARSET = "UTF-8";
-	private static final List<WeakReference<FileVersioned>> sWorkingSessions = new LinkedList<WeakReference<FileVersioned>>();
+	/**按路径（不区分大小写）缓存，查找不加锁**/
+	private static final WeakRegistry<FileVersioned> sWorkingSessions = new WeakRegistry<FileVersioned>();
 
 	private final String mFileDir;
 	private final String mFileName;
@@ -55,25 +55,13 @@ public class FileVersioned {
 		mFileName = fileName;
 	}
 
-	private static synchronized FileVersioned getFileVersioned(String fileDir, String fileName) {
-		FileVersioned fver = null;
-		List<WeakReference<FileVersioned>> emptyRefs = new LinkedList<WeakReference<FileVersioned>>();
-		for (WeakReference<FileVersioned> ref : sWorkingSessions) {
-			fver = ref.get();
-			if (fver == null) {
-				emptyRefs.add(ref);
-			} else if (fver.mFileDir.equalsIgnoreCase(fileDir) && fver.mFileName.equalsIgnoreCase(fileName)) {
-				break;
-			} else {
-				fver = null;
+	private static FileVersioned getFileVersioned(final String fileDir, final String fileName) {
+		return sWorkingSessions.get(fileDir + File.separator + fileName, new WeakRegistry.Factory<FileVersioned>() {
+			@Override
+			public FileVersioned create(String name) {
+				return new FileVersioned(fileDir, fileName);
 			}
-		}
-		sWorkingSessions.removeAll(emptyRefs);
-		if (fver == null) {
-			fver = new FileVersioned(fileDir, fileName);
-			sWorkingSessions.add(new WeakReference<FileVersioned>(fver));
-		}
-		return fver;
+		});
 	}
 
 	public static void saveAsFileInDefaultDir(Context context, String fileName, String content) {
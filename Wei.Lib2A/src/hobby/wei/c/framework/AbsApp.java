@@ -27,10 +27,14 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
 import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 
 import hobby.wei.c.L;
 import hobby.wei.c.framework.user.IUser;
 import hobby.wei.c.framework.user.IUserConfig;
+import hobby.wei.c.persist.KeeperPreloader;
+import hobby.wei.c.tools.CacheBudget;
+import hobby.wei.c.tools.ICache;
 import hobby.wei.c.used.UsedKeeper;
 import hobby.wei.c.utils.CrashHandler;
 
@@ -43,6 +47,9 @@ public abstract class AbsApp extends Application {
 		CrashHandler.startCaughtAllException(false, true);
 	}
 
+	/**退出时等待缓存写回队列写完的最长时间**/
+	private static final long EXIT_FLUSH_TIMEOUT_MS = 1000;
+
 	private static Application sInstance;
 	private final Map<String, Object> mStaticInstances = new HashMap<String, Object>();
 	private final static WeakHashMap<Looper, Handler> sHandlerRefMap = new WeakHashMap<Looper, Handler>();
@@ -103,12 +110,44 @@ public abstract class AbsApp extends Application {
 	public void onCreate() {
 		super.onCreate();
 		//if(getConfig() == null) throw new NullPointerException("getConfig() 返回值不能为null。请不要返回Config.get()");
+		CacheBudget.setBudget(getCacheBudget());
 
+		final KeeperPreloader preloader = new KeeperPreloader();
+		onPreloadKeepers(preloader);
+		preloader.start(null);
 		ensureInfos();
 	}
 
+	/**
+	 * 声明启动后马上就要读取的{@link hobby.wei.c.persist.Keeper}文件，在后台并行预加载。子类覆写时请调用super.
+	 */
+	protected void onPreloadKeepers(KeeperPreloader preloader) {
+		preloader.add(UsedKeeper.AppS.moduleBuilder(0))	// ensureInfos()
+				.add(UsedKeeper.DeviceS.builder())
+				.add(UsedKeeper.UserHelperS.builder());
+	}
+
+	/**
+	 * 全局缓存预算（字节），见{@link CacheBudget}. 默认为{@link ActivityManager#getMemoryClass()}的1/4.
+	 */
+	protected long getCacheBudget() {
+		return ((ActivityManager) getSystemService(ACTIVITY_SERVICE)).getMemoryClass() * 1024L * 1024 / 4;
+	}
+
 	//protected abstract Config getConfig();
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		CacheBudget.onTrimMemory(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		CacheBudget.onLowMemory();
+	}
+
 	/**
 	 * 退出应用事件回调
 	 * @return true表示kill当前App以及其所有后台进程（需要加上权限：android.permission.KILL_BACKGROUND_PROCESSES），false则不kill.
@@ -167,6 +206,10 @@ public abstract class AbsApp extends Application {
 	}
 
 	/*package*/ void doExit() {
+		//进程可能随即被kill, 先写完缓存的写回队列。在后台写，主线程最多等待一段时间，以免ANR.
+		if (!ICache.Impl.flushAll(EXIT_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+			L.w(AbsApp.class, "退出时缓存的写回队列未能在%sms内写完", EXIT_FLUSH_TIMEOUT_MS);
+		}
 		if (onExit(mFirstLaunch) && checkCallingOrSelfPermission(android.Manifest.permission.KILL_BACKGROUND_PROCESSES) == PackageManager.PERMISSION_GRANTED) {
 			L.w(AbsApp.class, "@@@@@@@@@@@@@@@@@@---程序关闭---killBackgroundProcesses");
 			//只会对后台进程起作用，当本App最后一个Activity.onDestroy()的时候也会起作用，并且是立即起作用，即本语句后面的语句将不会执行。
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.os.Bundle;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hobby.wei.c.L;
+import hobby.wei.c.tools.LatencyHistogram;
+import hobby.wei.c.tools.StripedCounters;
+
+/**
+ * {@link MultiProcesSharedPreferences}的IPC统计（本进程内，所有文件合计）：每种操作的次数、耗时分布、传输的字节数，
+ * 内部缓存的命中率，以及经IPC读取最多的key（适合改为{@link MultiProcesSharedPreferences#getInstance(android.content.Context,
+ * String, boolean) 快照模式}或本地镜像的候选）。
+ * <p>
+ * 计数不加锁（{@link StripedCounters}），与一次Binder调用相比开销可以忽略。字节数是按Parcel的编码方式估算的负载大小
+ * （字符串按UTF-16），不含Binder自身的开销。
+ * <pre><code>
+ * IpcStats.startReporting(1, TimeUnit.MINUTES);  // 定期输出到L
+ * IpcStats.Snapshot s = IpcStats.snapshot();       // 或随时读取
+ * </code></pre>
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class IpcStats {
+    public enum Op {
+        GET_INT, GET_FLOAT, GET_LONG, GET_BOOLEAN, GET_STRING, GET_STRING_SET, GET_ALL, CONTAINS,
+        /** 一个Editor的全部变更，包括remove和clear. */
+        BATCH,
+        /** 快照模式的整体加载。 */
+        SNAPSHOT,
+        /** {@link MultiProcesSharedPreferences#clearAll}. */
+        CLEAR
+    }
+
+    private static final Op[] OPS = Op.values();
+    /** 每种操作占的计数器：次数、耗时、发送字节、接收字节 */
+    private static final int COUNT = 0, NANOS = 1, BYTES_SENT = 2, BYTES_RECEIVED = 3, PER_OP = 4;
+    private static final int CACHE_HITS = OPS.length * PER_OP, CACHE_MISSES = CACHE_HITS + 1,
+            SNAPSHOT_HITS = CACHE_HITS + 2, COUNTERS = CACHE_HITS + 3;
+    /** 最多跟踪这么多个不同的key, 之后出现的新key不再计入 */
+    private static final int MAX_KEYS = 256;
+    private static final int HOT_KEYS = 10;
+
+    private static final StripedCounters sCounters = new StripedCounters(COUNTERS);
+    private static final LatencyHistogram[] sLatency = new LatencyHistogram[OPS.length];
+    private static final ConcurrentHashMap<String, AtomicLong> sKeyCounts = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService sReporterExecutor;
+    private static ScheduledFuture<?> sReporting;
+
+    static {
+        for (int i = 0; i < sLatency.length; i++) {
+            sLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    private IpcStats() {
+    }
+
+    /**
+     * @param key 为null表示不针对某个key（如{@link Op#GET_ALL}）。
+     */
+    static void recordIpc(Op op, long beginNanos, long bytesSent, long bytesReceived, String name, String key) {
+        final long nanos = System.nanoTime() - beginNanos;
+        final int base = op.ordinal() * PER_OP;
+        sCounters.add(base + COUNT, 1);
+        sCounters.add(base + NANOS, nanos);
+        sCounters.add(base + BYTES_SENT, bytesSent);
+        sCounters.add(base + BYTES_RECEIVED, bytesReceived);
+        sLatency[op.ordinal()].record(nanos);
+        if (key != null) countKey(name + "/" + key);
+    }
+
+    static void recordCacheHit() {
+        sCounters.add(CACHE_HITS, 1);
+    }
+
+    static void recordCacheMiss() {
+        sCounters.add(CACHE_MISSES, 1);
+    }
+
+    static void recordSnapshotHit() {
+        sCounters.add(SNAPSHOT_HITS, 1);
+    }
+
+    private static void countKey(String key) {
+        AtomicLong count = sKeyCounts.get(key);
+        if (count == null) {
+            if (sKeyCounts.size() >= MAX_KEYS) return;
+            final AtomicLong created = new AtomicLong();
+            count = sKeyCounts.putIfAbsent(key, created);
+            if (count == null) count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * 估算一个值在Parcel中的大小（字节）。
+     */
+    static long sizeOf(Object value) {
+        if (value == null) return 4;
+        if (value instanceof String) return 4 + 2L * ((String) value).length();
+        if (value instanceof Long || value instanceof Double) return 8;
+        if (value instanceof Number || value instanceof Boolean) return 4;
+        if (value instanceof byte[]) return 4 + ((byte[]) value).length;
+        if (value instanceof int[]) return 4 + 4L * ((int[]) value).length;
+        if (value instanceof float[]) return 4 + 4L * ((float[]) value).length;
+        if (value instanceof boolean[]) return 4 + 4L * ((boolean[]) value).length;
+        if (value instanceof long[]) return 4 + 8L * ((long[]) value).length;
+        if (value instanceof Object[]) {
+            long size = 4;
+            for (Object o : (Object[]) value) size += sizeOf(o);
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 4;
+            for (Object o : (Collection<?>) value) size += sizeOf(o);
+            return size;
+        }
+        if (value instanceof Bundle) {
+            final Bundle bundle = (Bundle) value;
+            long size = 4;
+            for (String key : bundle.keySet()) size += sizeOf(key) + sizeOf(bundle.get(key));
+            return size;
+        }
+        return 4;
+    }
+
+    public static Snapshot snapshot() {
+        final long[][] latency = new long[OPS.length][];
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = sLatency[i].snapshot();
+        }
+        final List<Map.Entry<String, Long>> keys = new ArrayList<>();
+        for (Map.Entry<String, AtomicLong> entry : sKeyCounts.entrySet()) {
+            keys.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+        }
+        Collections.sort(keys, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> l, Map.Entry<String, Long> r) {
+                return r.getValue().compareTo(l.getValue());
+            }
+        });
+        final Map<String, Long> hotKeys = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : keys) {
+            hotKeys.put(entry.getKey(), entry.getValue());
+        }
+        return new Snapshot(sCounters.sum(), latency, Collections.unmodifiableMap(hotKeys));
+    }
+
+    /**
+     * 定期把{@link #snapshot()}输出到{@link L}. 再次调用会替换之前的设置。
+     */
+    public static void startReporting(long period, TimeUnit unit) {
+        synchronized (IpcStats.class) {
+            stopReporting();
+            if (sReporterExecutor == null) {
+                sReporterExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "IpcStats-reporter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            sReporting = sReporterExecutor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    L.i(IpcStats.class, "%s", snapshot());
+                }
+            }, period, period, unit);
+        }
+    }
+
+    public static void stopReporting() {
+        synchronized (IpcStats.class) {
+            if (sReporting != null) {
+                sReporting.cancel(false);
+                sReporting = null;
+            }
+        }
+    }
+
+    /**
+     * 某一时刻的统计值，不可变。各项之间不保证是同一时刻的值。
+     */
+    public static class Snapshot {
+        private final long[] counters;
+        private final long[][] latency;
+        /** 经IPC读取的次数，"文件名/key" -> 次数，从多到少 */
+        public final Map<String, Long> keyCounts;
+
+        Snapshot(long[] counters, long[][] latency, Map<String, Long> keyCounts) {
+            this.counters = counters;
+            this.latency = latency;
+            this.keyCounts = keyCounts;
+        }
+
+        public long count(Op op) {
+            return counters[op.ordinal() * PER_OP + COUNT];
+        }
+
+        public double totalMillis(Op op) {
+            return counters[op.ordinal() * PER_OP + NANOS] / 1e6;
+        }
+
+        public double averageMillis(Op op) {
+            final long count = count(op);
+            return count == 0 ? 0 : totalMillis(op) / count;
+        }
+
+        /**
+         * @param percentile 如50、99、99.9.
+         */
+        public double millisAt(Op op, double percentile) {
+            return LatencyHistogram.millisAt(latency[op.ordinal()], percentile);
+        }
+
+        public long bytesSent(Op op) {
+            return counters[op.ordinal() * PER_OP + BYTES_SENT];
+        }
+
+        public long bytesReceived(Op op) {
+            return counters[op.ordinal() * PER_OP + BYTES_RECEIVED];
+        }
+
+        public long ipcCount() {
+            long count = 0;
+            for (Op op : OPS) count += count(op);
+            return count;
+        }
+
+        public double ipcMillis() {
+            double millis = 0;
+            for (Op op : OPS) millis += totalMillis(op);
+            return millis;
+        }
+
+        public long cacheHitCount() {
+            return counters[CACHE_HITS];
+        }
+
+        public long cacheMissCount() {
+            return counters[CACHE_MISSES];
+        }
+
+        /**
+         * 非快照模式下，读取命中内部缓存（不需要IPC）的比例。
+         */
+        public double cacheHitRate() {
+            final long requests = cacheHitCount() + cacheMissCount();
+            return requests == 0 ? 1 : (double) cacheHitCount() / requests;
+        }
+
+        /**
+         * 快照模式下直接从快照读取的次数。
+         */
+        public long snapshotHitCount() {
+            return counters[SNAPSHOT_HITS];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "IpcStats[ipc=%d, %.1fms, cache hits=%d misses=%d hitRate=%.1f%%, snapshot hits=%d",
+                    ipcCount(), ipcMillis(), cacheHitCount(), cacheMissCount(), cacheHitRate() * 100, snapshotHitCount()));
+            for (Op op : OPS) {
+                if (count(op) == 0) continue;
+                sb.append(String.format(Locale.US, "\n  %s: n=%d avg=%.3fms p50=%.3fms p99=%.3fms sent=%dB received=%dB",
+                        op, count(op), averageMillis(op), millisAt(op, 50), millisAt(op, 99), bytesSent(op), bytesReceived(op)));
+            }
+            int i = 0;
+            for (Map.Entry<String, Long> entry : keyCounts.entrySet()) {
+                if (i++ == 0) sb.append("\n  hot keys:");
+                if (i > HOT_KEYS) break;
+                sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            return sb.append(']').toString();
+        }
+    }
+}
@@ -3,11 +3,16 @@ package hobby.wei.c.persist;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 
-import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hobby.wei.c.data.abs.IJson;
+import hobby.wei.c.tools.WeakRegistry;
 
 import static hobby.wei.c.utils.Assist.requireNonEmpty;
 import static hobby.wei.c.utils.Assist.requireNotNull;
@@ -19,32 +24,40 @@ import static hobby.wei.c.utils.Assist.requireNotNull;
  */
 public class Keeper {
     protected static final String KEEP_XML_DEF = "keeper";
-    private static final Map<String, WeakReference<Keeper>> sName2KeeperMap = new HashMap<>();
-
-    private static Keeper get(Context context, String keepXml, boolean multiProcess) {
-        final String keepXmlLC = requireNonEmpty(keepXml).toLowerCase();
-        WeakReference<Keeper> ref = sName2KeeperMap.get(keepXmlLC);
-        Keeper instance = ref == null ? null : ref.get();
-        if (instance == null) {
-            synchronized (Keeper.class) {
-                ref = sName2KeeperMap.get(keepXmlLC);
-                instance = ref == null ? null : ref.get();
-                if (instance == null) {
-                    instance = new Keeper(context, keepXml, multiProcess);
-                    sName2KeeperMap.put(keepXmlLC, new WeakReference<>(instance));
-                }
-            }
+    /**按{@link SPrefHelper}分开，同名文件在不同的实现中是不同的数据，不能共用一个Keeper**/
+    private static final ConcurrentHashMap<SPrefHelper, WeakRegistry<Keeper>> sHelper2KeeperMaps = new ConcurrentHashMap<>();
+
+    private static Keeper get(final Context context, String keepXml, final SPrefHelper helper) {
+        WeakRegistry<Keeper> name2KeeperMap = sHelper2KeeperMaps.get(helper);
+        if (name2KeeperMap == null) {
+            final WeakRegistry<Keeper> created = new WeakRegistry<>();
+            name2KeeperMap = sHelper2KeeperMaps.putIfAbsent(helper, created);
+            if (name2KeeperMap == null) name2KeeperMap = created;
         }
-        return instance;
+        return name2KeeperMap.get(requireNonEmpty(keepXml), new WeakRegistry.Factory<Keeper>() {
+            @Override
+            public Keeper create(String name) {
+                return new Keeper(context, name, helper);
+            }
+        });
     }
 
+    private static final Object ABSENT = new Object();
+
     private final String mKeepXml;
     private final SharedPreferences mSPref;
-
-    private Keeper(Context context, String keepXml, boolean multiProcess) {
+    /**{@link Field}读取的缓存，值为null时存{@link #ABSENT}**/
+    private final ConcurrentHashMap<String, Object> mFieldCache = new ConcurrentHashMap<>();
+    /**每次失效时递增，用于丢弃失效之前开始加载的值**/
+    private final AtomicInteger mFieldEpoch = new AtomicInteger();
+    /**{@link #readObject(String, IJson)}反序列化之后的对象**/
+    private final ConcurrentHashMap<String, Parsed> mObjectCache = new ConcurrentHashMap<>();
+    /**须强引用，系统实现对监听器是弱引用的**/
+    private OnSharedPreferenceChangeListener mInvalidator;
+
+    private Keeper(Context context, String keepXml, SPrefHelper helper) {
         mKeepXml = keepXml;
-        mSPref = multiProcess ? SPrefHelper.multiProcess().getSPref(context, mKeepXml) :
-                SPrefHelper.def().getSPref(context, mKeepXml);
+        mSPref = helper.getSPref(context, mKeepXml);
     }
 
     public String getKeepXml() {
@@ -59,6 +72,163 @@ public class Keeper {
         return mSPref.edit();
     }
 
+    /**
+     * 开始一次批量写入：期间所有的keepXxx()/remove()都收集在同一个{@link Editor}里，最后一次性原子地提交。
+     * 对{@link SPrefHelper#multiProcess()}而言只有一次IPC, 而不是每个字段各一次。
+     * <pre><code>
+     * keeper.batch().keepString("name", name).keepInt("age", age).remove("tmp").apply();
+     * </code></pre>
+     */
+    public Transaction batch() {
+        return new Transaction(this);
+    }
+
+    /**
+     * 见{@link #batch()}. 只能提交一次。
+     */
+    public static class Transaction {
+        private final Keeper mKeeper;
+        private final Editor mEditor;
+        private final Set<String> mKeys = new HashSet<>();
+        private boolean mClear;
+        private boolean mDone;
+
+        private Transaction(Keeper keeper) {
+            mKeeper = keeper;
+            mEditor = keeper.edit();
+        }
+
+        public Transaction keepInt(String key, int value) {
+            editor().putInt(requireNonEmpty(key), value);
+            mKeys.add(key);
+            return this;
+        }
+
+        public Transaction keepBoolean(String key, boolean value) {
+            editor().putBoolean(requireNonEmpty(key), value);
+            mKeys.add(key);
+            return this;
+        }
+
+        public Transaction keepFloat(String key, float value) {
+            editor().putFloat(requireNonEmpty(key), value);
+            mKeys.add(key);
+            return this;
+        }
+
+        public Transaction keepLong(String key, long value) {
+            editor().putLong(requireNonEmpty(key), value);
+            mKeys.add(key);
+            return this;
+        }
+
+        public Transaction keepString(String key, String value) {
+            editor().putString(requireNonEmpty(key), value);
+            mKeys.add(key);
+            return this;
+        }
+
+        /**
+         * 见{@link Keeper#keepObject(String, IJson)}.
+         */
+        public Transaction keepObject(String key, IJson<?> value) {
+            // multiProcess的putString(key, null)会抛异常。
+            return value == null ? remove(key) : keepString(key, value.toJson());
+        }
+
+        public Transaction keepStringSet(String key, Set<String> value) {
+            editor().putStringSet(requireNonEmpty(key), value);
+            mKeys.add(key);
+            return this;
+        }
+
+        public Transaction remove(String key) {
+            editor().remove(requireNonEmpty(key));
+            mKeys.add(key);
+            return this;
+        }
+
+        public Transaction keep(IntField field, int value) {
+            editor().putInt(field.key, value);
+            mKeys.add(field.key);
+            return this;
+        }
+
+        public Transaction keep(BooleanField field, boolean value) {
+            editor().putBoolean(field.key, value);
+            mKeys.add(field.key);
+            return this;
+        }
+
+        public Transaction keep(FloatField field, float value) {
+            editor().putFloat(field.key, value);
+            mKeys.add(field.key);
+            return this;
+        }
+
+        public Transaction keep(LongField field, long value) {
+            editor().putLong(field.key, value);
+            mKeys.add(field.key);
+            return this;
+        }
+
+        public Transaction keep(StringField field, String value) {
+            editor().putString(field.key, value);
+            mKeys.add(field.key);
+            return this;
+        }
+
+        public Transaction remove(Field field) {
+            editor().remove(field.key);
+            mKeys.add(field.key);
+            return this;
+        }
+
+        /**
+         * 清除全部数据，与{@link Editor#clear()}一样，先于本事务中的其它修改执行（与调用顺序无关）。
+         */
+        public Transaction clear() {
+            editor().clear();
+            mClear = true;
+            return this;
+        }
+
+        /**
+         * 同步提交。
+         */
+        public boolean commit() {
+            final boolean success = editor().commit();
+            mDone = true;
+            invalidate();
+            return success;
+        }
+
+        /**
+         * 异步提交。
+         */
+        public Keeper apply() {
+            editor().apply();
+            mDone = true;
+            invalidate();
+            return mKeeper;
+        }
+
+        private void invalidate() {
+            if (mClear) {
+                mKeeper.invalidate(null);
+            } else {
+                for (String key : mKeys) {
+                    mKeeper.invalidate(key);
+                }
+            }
+        }
+
+        private Editor editor() {
+            if (mDone) throw new IllegalStateException("事务已提交，请重新调用Keeper.batch()");
+            return mEditor;
+        }
+    }
+
     public static Builder.User get(Context context, String keepXml) {
         return new Builder.User(context, keepXml);
     }
@@ -102,7 +272,7 @@ public class Keeper {
     public static class Builder {
         private final Context mContext;
         String mKeepXml;
-        boolean mMultiProcess = false;
+        SPrefHelper mSPrefHelper = SPrefHelper.def();
 
         private Builder(Context context, String keepXml) {
             mContext = requireNotNull(context);
@@ -110,7 +280,7 @@ public class Keeper {
         }
 
         public Keeper ok() {
-            return get(mContext, mKeepXml, mMultiProcess);
+            return get(mContext, mKeepXml, mSPrefHelper);
         }
 
         public <T extends Wrapper> T bind(T wrapper) {
@@ -123,7 +293,15 @@ public class Keeper {
             }
 
             public Builder multiProcess() {
-                mMultiProcess = true;
+                return multiProcess(false);
+            }
+
+            /**
+             * @param mmap 是否使用基于内存映射文件的实现（{@link SPrefHelper#mmap()}），否则使用
+             *             {@link SharedPreferencesProvider}（{@link SPrefHelper#multiProcess()}）。两者的数据不互通。
+             */
+            public Builder multiProcess(boolean mmap) {
+                mSPrefHelper = mmap ? SPrefHelper.mmap() : SPrefHelper.multiProcess();
                 return this;
             }
         }
@@ -161,6 +339,7 @@ public class Keeper {
 
     public Keeper keepInt(String key, int value) {
         edit().putInt(requireNonEmpty(key), value).apply();
+        invalidate(key);
         return this;
     }
 
@@ -174,6 +353,7 @@ public class Keeper {
 
     public Keeper keepBoolean(String key, boolean value) {
         edit().putBoolean(requireNonEmpty(key), value).apply();
+        invalidate(key);
         return this;
     }
 
@@ -187,6 +367,7 @@ public class Keeper {
 
     public Keeper keepFloat(String key, float value) {
         edit().putFloat(requireNonEmpty(key), value).apply();
+        invalidate(key);
         return this;
     }
 
@@ -200,6 +381,7 @@ public class Keeper {
 
     public Keeper keepLong(String key, long value) {
         edit().putLong(requireNonEmpty(key), value).apply();
+        invalidate(key);
         return this;
     }
 
@@ -213,6 +395,7 @@ public class Keeper {
 
     public Keeper keepString(String key, String value) {
         edit().putString(requireNonEmpty(key), value).apply();
+        invalidate(key);
         return this;
     }
 
@@ -224,12 +407,240 @@ public class Keeper {
         return mSPref.getString(requireNonEmpty(key), defaultValue);
     }
 
+    /**
+     * 以json字符串的形式保存。
+     *
+     * @param value 为null则删除。
+     */
+    public Keeper keepObject(String key, IJson<?> value) {
+        // multiProcess的putString(key, null)会抛异常。
+        return value == null ? remove(key) : keepString(key, value.toJson());
+    }
+
+    /**
+     * 读取{@link #keepObject(String, IJson)}保存的对象。
+     * <p>
+     * 解析的结果缓存在本Keeper中，再次读取时直接返回同一个对象，不会重复解析json, 直到该key被写入或删除
+     * （本进程的或经{@link OnSharedPreferenceChangeListener}通知的其它进程的）。
+     * 因此<b>不要修改返回的对象</b>，若要修改，修改之后应立即{@link #keepObject(String, IJson) keepObject()}.
+     *
+     * @param parser 用于{@link IJson#fromJson(String)}的实例，如<code>new User()</code>. 同一个key应总是用同一个类型。
+     * @return 不存在时为null.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T readObject(String key, IJson<T> parser) {
+        requireNotNull(parser);
+        Parsed parsed = mObjectCache.get(requireNonEmpty(key));
+        if (parsed == null || parsed.parser != parser.getClass()) {
+            ensureInvalidator();
+            final int epoch = mFieldEpoch.get();
+            final String json = mSPref.getString(key, null);
+            parsed = new Parsed(parser.getClass(), json == null ? null : parser.fromJson(json));
+            mObjectCache.put(key, parsed);
+            if (mFieldEpoch.get() != epoch) mObjectCache.remove(key, parsed);
+        }
+        return (T) parsed.value;
+    }
+
     public Keeper remove(String key) {
         edit().remove(requireNonEmpty(key)).apply();
+        invalidate(key);
         return this;
     }
 
     public boolean contains(String key) {
         return mSPref.contains(requireNonEmpty(key));
     }
+
+    private Object readField(Field field) {
+        Object value = mFieldCache.get(field.key);
+        if (value == null) {
+            ensureInvalidator();
+            final int epoch = mFieldEpoch.get();
+            value = field.load(mSPref);
+            if (value == null) value = ABSENT;
+            mFieldCache.put(field.key, value);
+            // 加载期间发生了变化，加载到的可能是旧值。
+            if (mFieldEpoch.get() != epoch) mFieldCache.remove(field.key);
+        }
+        return value == ABSENT ? null : value;
+    }
+
+    /**
+     * @param key 为null表示全部。
+     */
+    private void invalidate(String key) {
+        mFieldEpoch.incrementAndGet();
+        if (key == null) {
+            mFieldCache.clear();
+            mObjectCache.clear();
+        } else {
+            mFieldCache.remove(key);
+            mObjectCache.remove(key);
+        }
+    }
+
+    private static final class Parsed {
+        final Class<?> parser;
+        final Object value;
+
+        Parsed(Class<?> parser, Object value) {
+            this.parser = parser;
+            this.value = value;
+        }
+    }
+
+    private synchronized void ensureInvalidator() {
+        if (mInvalidator != null) return;
+        mInvalidator = new OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                invalidate(key);
+            }
+        };
+        mSPref.registerOnSharedPreferenceChangeListener(mInvalidator);
+    }
+
+    /**
+     * 有类型的字段，以常量的形式定义，代替字符串key:
+     * <pre><code>
+     * private static final Keeper.IntField LAUNCH_COUNT = new Keeper.IntField("launch_count", 0);
+     *
+     * int count = LAUNCH_COUNT.read(keeper);
+     * keeper.batch().keep(LAUNCH_COUNT, count + 1).keep(LAST_LAUNCH, now).apply();
+     * </code></pre>
+     * key只在定义时校验一次并intern, 拼写错误在编译期即可发现；默认值是primitive类型；读到的值缓存在{@link Keeper}内，
+     * 本Keeper的写入以及{@link OnSharedPreferenceChangeListener}通知的变化（包括其它进程的）会使之失效。
+     * 直接通过{@link Keeper#edit()}的写入要等到监听器回调（主线程）之后才会失效。
+     */
+    public static abstract class Field {
+        public final String key;
+
+        Field(String key) {
+            this.key = requireNonEmpty(key).intern();
+        }
+
+        public void remove(Keeper keeper) {
+            keeper.batch().remove(this).apply();
+        }
+
+        /**
+         * @return 值，不存在时为默认值（可能为null）。
+         */
+        abstract Object load(SharedPreferences spref);
+    }
+
+    public static final class IntField extends Field {
+        public final int defaultValue;
+
+        public IntField(String key, int defaultValue) {
+            super(key);
+            this.defaultValue = defaultValue;
+        }
+
+        public int read(Keeper keeper) {
+            final Integer value = (Integer) keeper.readField(this);
+            return value == null ? defaultValue : value;
+        }
+
+        public void keep(Keeper keeper, int value) {
+            keeper.batch().keep(this, value).apply();
+        }
+
+        @Override
+        Object load(SharedPreferences spref) {
+            return spref.getInt(key, defaultValue);
+        }
+    }
+
+    public static final class BooleanField extends Field {
+        public final boolean defaultValue;
+
+        public BooleanField(String key, boolean defaultValue) {
+            super(key);
+            this.defaultValue = defaultValue;
+        }
+
+        public boolean read(Keeper keeper) {
+            final Boolean value = (Boolean) keeper.readField(this);
+            return value == null ? defaultValue : value;
+        }
+
+        public void keep(Keeper keeper, boolean value) {
+            keeper.batch().keep(this, value).apply();
+        }
+
+        @Override
+        Object load(SharedPreferences spref) {
+            return spref.getBoolean(key, defaultValue);
+        }
+    }
+
+    public static final class FloatField extends Field {
+        public final float defaultValue;
+
+        public FloatField(String key, float defaultValue) {
+            super(key);
+            this.defaultValue = defaultValue;
+        }
+
+        public float read(Keeper keeper) {
+            final Float value = (Float) keeper.readField(this);
+            return value == null ? defaultValue : value;
+        }
+
+        public void keep(Keeper keeper, float value) {
+            keeper.batch().keep(this, value).apply();
+        }
+
+        @Override
+        Object load(SharedPreferences spref) {
+            return spref.getFloat(key, defaultValue);
+        }
+    }
+
+    public static final class LongField extends Field {
+        public final long defaultValue;
+
+        public LongField(String key, long defaultValue) {
+            super(key);
+            this.defaultValue = defaultValue;
+        }
+
+        public long read(Keeper keeper) {
+            final Long value = (Long) keeper.readField(this);
+            return value == null ? defaultValue : value;
+        }
+
+        public void keep(Keeper keeper, long value) {
+            keeper.batch().keep(this, value).apply();
+        }
+
+        @Override
+        Object load(SharedPreferences spref) {
+            return spref.getLong(key, defaultValue);
+        }
+    }
+
+    public static final class StringField extends Field {
+        public final String defaultValue;
+
+        public StringField(String key, String defaultValue) {
+            super(key);
+            this.defaultValue = defaultValue;
+        }
+
+        public String read(Keeper keeper) {
+            return (String) keeper.readField(this);
+        }
+
+        public void keep(Keeper keeper, String value) {
+            keeper.batch().keep(this, value).apply();
+        }
+
+        @Override
+        Object load(SharedPreferences spref) {
+            return spref.getString(key, defaultValue);
+        }
+    }
 }
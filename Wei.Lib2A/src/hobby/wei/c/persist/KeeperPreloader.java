@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hobby.wei.c.L;
+
+/**
+ * 启动时在后台并行预加载{@link Keeper}文件。
+ * <p>
+ * 每个xml文件第一次被读取时，调用线程会阻塞到系统解析完整个文件，这通常发生在主线程（如
+ * {@link hobby.wei.c.framework.AbsApp#onCreate()}）。在启动之初把稍后要用的文件声明进来，用一个小线程池并行加载，
+ * 之后的读取就直接命中已加载的数据。同时记录每个文件的加载耗时，用于找出拖慢启动的文件。
+ * <pre><code>
+ * new KeeperPreloader()
+ *      .add(Keeper.get(context, "settings").withUser(userId))
+ *      .add(ModularKeeper.builder(userId, "chat", true))
+ *      .start(null);
+ * </code></pre>
+ * 预加载过的{@link Keeper}在进程内一直保持强引用，以免在真正使用之前被回收（{@link Keeper}本身只被弱引用缓存）。
+ * <p>
+ * 注意：{@link Keeper.Builder.Multiper#multiProcess()}（非mmap）的文件实际由{@link SharedPreferencesProvider}所在的进程加载，
+ * 预加载只是让该进程提前把文件读进内存；本进程之后的每次读取仍是一次IPC, 不会因预加载而变快。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class KeeperPreloader {
+    public interface Callback {
+        /**
+         * 全部加载完成后在后台线程回调。
+         *
+         * @param millis 每个文件的加载耗时（毫秒），按耗时从大到小排列。加载失败的为-1.
+         */
+        void onPreloaded(Map<String, Long> millis);
+    }
+
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final List<Keeper> sRetained = new ArrayList<>();
+
+    private final List<Keeper.Builder> mBuilders = new ArrayList<>();
+
+    /**
+     * @param builder 已确定了文件名（如已调用{@link Keeper.Builder.User#withUser(String)}等）的Builder, 之后不要再修改。
+     */
+    public KeeperPreloader add(Keeper.Builder builder) {
+        mBuilders.add(builder);
+        return this;
+    }
+
+    /**
+     * 开始加载，立即返回。
+     *
+     * @param callback 可为null, 耗时会输出到日志。
+     */
+    public void start(final Callback callback) {
+        if (mBuilders.isEmpty()) return;
+        final List<Keeper.Builder> builders = new ArrayList<>(mBuilders);
+        final Map<String, Long> millis = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+        final AtomicInteger remaining = new AtomicInteger(builders.size());
+        final ExecutorService executor = newExecutor(Math.min(POOL_SIZE, builders.size()));
+        for (final Keeper.Builder builder : builders) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final String name = builder.mKeepXml;
+                    final long begin = System.nanoTime();
+                    try {
+                        final Keeper keeper = builder.ok();
+                        // 任何一次读取都会等到整个文件加载完成。
+                        keeper.getSharedPreferences().contains(name);
+                        synchronized (sRetained) {
+                            if (!sRetained.contains(keeper)) sRetained.add(keeper);
+                        }
+                        millis.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                    } catch (RuntimeException e) {
+                        L.e(KeeperPreloader.class, e);
+                        millis.put(name, -1L);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        executor.shutdown();
+                        report(millis, callback);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void report(Map<String, Long> millis, Callback callback) {
+        final List<Map.Entry<String, Long>> entries;
+        synchronized (millis) {
+            entries = new ArrayList<>(millis.entrySet());
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> l, Map.Entry<String, Long> r) {
+                return r.getValue().compareTo(l.getValue());
+            }
+        });
+        final Map<String, Long> sorted = new LinkedHashMap<>();
+        long total = 0;
+        for (Map.Entry<String, Long> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+            if (entry.getValue() > 0) total += entry.getValue();
+        }
+        L.i(KeeperPreloader.class, "preloaded %s files, total %sms: %s", sorted.size(), total, sorted);
+        if (callback != null) callback.onPreloaded(sorted);
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "KeeperPreloader-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -0,0 +1,745 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import hobby.wei.c.L;
+import hobby.wei.c.tools.WeakRegistry;
+
+/**
+ * 基于内存映射文件的跨进程SharedPreferences, 作为{@link MultiProcesSharedPreferences}之外的另一种实现。
+ * <p>
+ * 数据以只追加的二进制日志存放在一个映射到内存的文件中，每条记录带类型和CRC32校验。写入只追加本次变更的记录，
+ * 是O(变更)而不是像xml那样每次重写整个文件；读取直接读本进程内存中的数据，不经过IPC.
+ * 跨进程的写互斥用文件锁；其它进程通过文件头中的代数和日志末尾位置（一次内存读取）发现变化，只解析新追加的记录。
+ * 日志中的过期记录过多时在后台线程压缩（重写为只含当前数据的日志），空间不够时先压缩，还不够再扩容。
+ * 压缩不会原地覆盖当前日志：新日志写在不重叠的区域并落盘之后，才通过切换文件头中的槽位发布，
+ * 因此压缩过程中崩溃或断电都不会丢失已经commit的数据。
+ * <p>
+ * 与系统实现的区别：{@link Editor#apply()}同样是同步写入映射内存，只是不强制落盘，进程崩溃不会丢数据，
+ * 断电则可能丢失；{@link Editor#commit()}会强制落盘。其它进程的变更通过{@link ContentResolver#notifyChange}
+ * 通知到本进程的监听器。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class MmapSharedPreferences implements SharedPreferences {
+    private static final String DIR = "mmap_prefs";
+    private static final int MAGIC = 0x574b5632;   // "WKV2"
+    /**
+     * 文件头：MAGIC, 当前槽位（0或1），两个槽位。每个槽位为：代数（每次重写日志时递增），日志起始位置，日志末尾位置。
+     * 追加只改当前槽位的末尾位置；重写时写另一个槽位，最后用一次int写入切换当前槽位。
+     */
+    private static final int HEADER = 32;
+    private static final int OFFSET_SLOT = 4;
+    private static final int OFFSET_SLOTS = 8;
+    private static final int SLOT_SIZE = 12;
+    private static final int SLOT_GENERATION = 0, SLOT_START = 4, SLOT_END = 8;
+    private static final int INITIAL_SIZE = 4096;
+    /**日志中的记录数超过存活key数的这个倍数（且不少于{@link #COMPACT_MIN_RECORDS}）时，在后台压缩**/
+    private static final int COMPACT_RATIO = 2;
+    private static final int COMPACT_MIN_RECORDS = 64;
+
+    private static final byte T_INT = 1, T_LONG = 2, T_FLOAT = 3, T_BOOL = 4, T_STRING = 5, T_STR_SET = 6,
+            T_REMOVE = 7, T_CLEAR = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final WeakRegistry<MmapSharedPreferences> sName2Instance = new WeakRegistry<>();
+    private static ExecutorService sCompactor;
+
+    private final Context mContext;
+    private final String mName;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final Handler mHandler;
+    private final ContentObserver mContentObserver;
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<>();
+    /**以下都由this保护**/
+    private final Map<String, Object> mMap = new HashMap<>();
+    private MappedByteBuffer mBuffer;
+    private int mGeneration = -1;
+    /**当前日志的起始位置**/
+    private int mStart = HEADER;
+    /**上次同步时文件头中的末尾位置，仅用于快速判断是否有变化**/
+    private int mSeenEnd;
+    /**已解析到的位置，总是在一条有效记录的末尾**/
+    private int mParsedEnd;
+    /**日志中的记录条数**/
+    private int mRecords;
+    private boolean mCompactScheduled;
+
+    public static MmapSharedPreferences getInstance(final Context context, String name) {
+        return sName2Instance.get(name, new WeakRegistry.Factory<MmapSharedPreferences>() {
+            @Override
+            public MmapSharedPreferences create(String name) {
+                return new MmapSharedPreferences(context, name);
+            }
+        });
+    }
+
+    private MmapSharedPreferences(Context context, String name) {
+        mContext = context.getApplicationContext();
+        mName = name;
+        mHandler = new Handler(mContext.getMainLooper());
+        mContentObserver = new MyContentObserver(this, mHandler);
+        final File dir = new File(mContext.getFilesDir(), DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IllegalStateException("无法创建目录: " + dir);
+        try {
+            mFile = new RandomAccessFile(new File(dir, name), "rw");
+            mChannel = mFile.getChannel();
+            synchronized (this) {
+                final FileLock lock = mChannel.lock();
+                try {
+                    if (mFile.length() < INITIAL_SIZE) mFile.setLength(INITIAL_SIZE);
+                    mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mFile.length());
+                    if (mBuffer.getInt(0) != MAGIC) {
+                        writeSlot(0, 0, HEADER, HEADER);
+                        mBuffer.putInt(OFFSET_SLOT, 0);
+                        mBuffer.putInt(0, MAGIC);
+                    }
+                    refreshLocked(true, null);
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("无法打开: " + name, e);
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        final Integer value = (Integer) read(key);
+        return value == null ? defValue : value;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        final Long value = (Long) read(key);
+        return value == null ? defValue : value;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        final Float value = (Float) read(key);
+        return value == null ? defValue : value;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        final Boolean value = (Boolean) read(key);
+        return value == null ? defValue : value;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        final String value = (String) read(key);
+        return value == null ? defValue : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        final Set<String> value = (Set<String>) read(key);
+        return value == null ? defValues : value;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        ensureFresh();
+        synchronized (this) {
+            return new HashMap<>(mMap);
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        ensureFresh();
+        synchronized (this) {
+            return mMap.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new MyEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.put(listener, Boolean.TRUE);
+            if (mListeners.size() == 1) {
+                mContext.getContentResolver().registerContentObserver(
+                        SharedPreferencesProvider.getUri4NotifyMmap(mName), false, mContentObserver);
+            }
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+            if (mListeners.isEmpty()) {
+                mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+            }
+        }
+    }
+
+    /**
+     * 立即压缩日志。通常不需要调用，过期记录过多时会自动在后台进行。
+     */
+    public void compact() {
+        final Set<String> changed = newChangedSet();
+        synchronized (this) {
+            mCompactScheduled = false;
+            FileLock lock = null;
+            try {
+                lock = mChannel.lock();
+                refreshLocked(true, changed);
+                rewriteLocked(0);
+            } catch (IOException e) {
+                L.e(MmapSharedPreferences.class, e);
+                mGeneration = -1;
+            } finally {
+                release(lock);
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    private Object read(String key) {
+        ensureFresh();
+        synchronized (this) {
+            return mMap.get(key);
+        }
+    }
+
+    /**
+     * 不加锁地检查文件头，其它进程有写入时才加共享锁同步。
+     */
+    private void ensureFresh() {
+        if (!isStale()) return;
+        final Set<String> changed = newChangedSet();
+        synchronized (this) {
+            if (!isStale()) return;
+            FileLock lock = null;
+            try {
+                lock = mChannel.lock(0, Long.MAX_VALUE, true);
+                refreshLocked(false, changed);
+            } catch (IOException e) {
+                L.e(MmapSharedPreferences.class, e);
+            } finally {
+                release(lock);
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    private synchronized boolean isStale() {
+        final int slot = activeSlot();
+        return mBuffer.getInt(slotOffset(slot, SLOT_GENERATION)) != mGeneration
+                || mBuffer.getInt(slotOffset(slot, SLOT_END)) != mSeenEnd;
+    }
+
+    private int activeSlot() {
+        return mBuffer.getInt(OFFSET_SLOT) & 1;
+    }
+
+    private static int slotOffset(int slot, int field) {
+        return OFFSET_SLOTS + slot * SLOT_SIZE + field;
+    }
+
+    private void writeSlot(int slot, int generation, int start, int end) {
+        mBuffer.putInt(slotOffset(slot, SLOT_GENERATION), generation);
+        mBuffer.putInt(slotOffset(slot, SLOT_START), start);
+        mBuffer.putInt(slotOffset(slot, SLOT_END), end);
+    }
+
+    /**
+     * 须持有文件锁。
+     *
+     * @param exclusive 是否持有的是写锁，是则顺便截掉损坏的尾部。
+     * @param changed   非null则收集发生了变化的key.
+     */
+    private void refreshLocked(boolean exclusive, Set<String> changed) throws IOException {
+        if (mChannel.size() > mBuffer.capacity()) {
+            // 其它进程扩容了。
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mChannel.size());
+        }
+        final int slot = activeSlot();
+        final int generation = mBuffer.getInt(slotOffset(slot, SLOT_GENERATION));
+        final int start = Math.max(HEADER, Math.min(mBuffer.getInt(slotOffset(slot, SLOT_START)), mBuffer.capacity()));
+        final int end = Math.min(mBuffer.getInt(slotOffset(slot, SLOT_END)), mBuffer.capacity());
+        if (generation != mGeneration || end < mParsedEnd) {
+            final Map<String, Object> old = changed == null ? null : new HashMap<>(mMap);
+            mMap.clear();
+            mRecords = 0;
+            mStart = start;
+            mParsedEnd = parse(start, end, null);
+            if (changed != null) diff(old, mMap, changed);
+            mGeneration = generation;
+        } else if (end > mParsedEnd) {
+            mParsedEnd = parse(mParsedEnd, end, changed);
+        }
+        mSeenEnd = end;
+        if (mParsedEnd < end) {
+            L.w(MmapSharedPreferences.class, "[%s]日志损坏，有效部分截止于%s, 原末尾%s.", L.s(mName), mParsedEnd, end);
+            if (exclusive) {
+                mBuffer.putInt(slotOffset(slot, SLOT_END), mParsedEnd);
+                mSeenEnd = mParsedEnd;
+            }
+        }
+    }
+
+    /**
+     * @return 最后一条完整有效记录的末尾。
+     */
+    private int parse(int from, int end, Set<String> changed) {
+        final ByteBuffer buffer = mBuffer.duplicate();
+        final CRC32 crc = new CRC32();
+        int offset = from;
+        while (offset + 4 <= end) {
+            final int length = buffer.getInt(offset);
+            if (length <= 0 || (long) offset + 8 + length > end) break;
+            final byte[] body = new byte[length];
+            buffer.position(offset + 4);
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4 + length)) break;
+            if (!applyRecord(body, changed)) break;
+            offset += 8 + length;
+            mRecords++;
+        }
+        return offset;
+    }
+
+    private boolean applyRecord(byte[] body, Set<String> changed) {
+        final ByteBuffer in = ByteBuffer.wrap(body);
+        try {
+            final byte type = in.get();
+            if (type == T_CLEAR) {
+                if (changed != null) changed.addAll(mMap.keySet());
+                mMap.clear();
+                return true;
+            }
+            final String key = readString(in);
+            final Object value;
+            switch (type) {
+                case T_INT:
+                    value = in.getInt();
+                    break;
+                case T_LONG:
+                    value = in.getLong();
+                    break;
+                case T_FLOAT:
+                    value = in.getFloat();
+                    break;
+                case T_BOOL:
+                    value = in.get() != 0;
+                    break;
+                case T_STRING:
+                    value = readString(in);
+                    break;
+                case T_STR_SET:
+                    final int count = in.getInt();
+                    final Set<String> set = new HashSet<>();
+                    for (int i = 0; i < count; i++) {
+                        set.add(readString(in));
+                    }
+                    value = set;
+                    break;
+                case T_REMOVE:
+                    if (mMap.remove(key) != null && changed != null) changed.add(key);
+                    return true;
+                default:
+                    return false;
+            }
+            final Object old = mMap.put(key, value);
+            if (changed != null && !value.equals(old)) changed.add(key);
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean commit(boolean clear, Map<String, Object> modified, boolean force) {
+        final Set<String> changed = newChangedSet();
+        final Set<String> changedRemote = new LinkedHashSet<>();
+        synchronized (this) {
+            FileLock lock = null;
+            try {
+                lock = mChannel.lock();
+                refreshLocked(true, changed);
+                final ByteArrayOutputStream records = new ByteArrayOutputStream();
+                final DataOutputStream out = new DataOutputStream(records);
+                int count = 0;
+                if (clear) {
+                    writeRecord(out, T_CLEAR, null, null);
+                    count++;
+                    changedRemote.addAll(mMap.keySet());
+                    mMap.clear();
+                }
+                for (Map.Entry<String, Object> entry : modified.entrySet()) {
+                    final String key = entry.getKey();
+                    final Object value = entry.getValue();
+                    if (value == null) {
+                        if (mMap.remove(key) == null) continue;
+                        writeRecord(out, T_REMOVE, key, null);
+                    } else {
+                        if (value.equals(mMap.put(key, value))) continue;
+                        writeRecord(out, typeOf(value), key, value);
+                    }
+                    count++;
+                    changedRemote.add(key);
+                }
+                if (count > 0) {
+                    if (mParsedEnd + records.size() > mBuffer.capacity()) {
+                        // mMap已包含本次的变更。
+                        rewriteLocked(records.size());
+                    } else {
+                        final ByteBuffer buffer = mBuffer.duplicate();
+                        buffer.position(mParsedEnd);
+                        buffer.put(records.toByteArray());
+                        mParsedEnd += records.size();
+                        mRecords += count;
+                        // 记录完整写入之后再更新末尾位置，其它进程不会读到半条记录。
+                        mBuffer.putInt(slotOffset(activeSlot(), SLOT_END), mParsedEnd);
+                        mSeenEnd = mParsedEnd;
+                    }
+                    if (force) mBuffer.force();
+                    if (mRecords >= COMPACT_MIN_RECORDS && mRecords > mMap.size() * COMPACT_RATIO) scheduleCompaction();
+                }
+            } catch (IOException e) {
+                L.e(MmapSharedPreferences.class, e);
+                // 内存中的数据可能已与文件不一致，下次访问时全部重新解析。
+                mGeneration = -1;
+                return false;
+            } finally {
+                release(lock);
+            }
+        }
+        if (!changedRemote.isEmpty()) {
+            if (changed != null) changed.addAll(changedRemote);
+            mContext.getContentResolver().notifyChange(SharedPreferencesProvider.getUri4NotifyMmap(mName), null);
+        }
+        notifyListeners(changed);
+        return true;
+    }
+
+    /**
+     * 把当前全部数据重写为新的日志，须持有写锁且已同步。
+     *
+     * @param extra 额外需要的剩余空间。
+     */
+    private void rewriteLocked(int extra) throws IOException {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(records);
+        for (Map.Entry<String, Object> entry : mMap.entrySet()) {
+            writeRecord(out, typeOf(entry.getValue()), entry.getKey(), entry.getValue());
+        }
+        final byte[] log = records.toByteArray();
+        // 新日志不能与当前日志[mStart, mParsedEnd)重叠：文件头之后放得下就放在那里，否则接在当前日志之后。
+        final int start = HEADER + log.length <= mStart ? HEADER : mParsedEnd;
+        long size = mBuffer.capacity();
+        while (size < (long) start + log.length + extra) size *= 2;
+        if (size > Integer.MAX_VALUE) throw new IOException("文件过大: " + size);
+        if (size > mBuffer.capacity()) {
+            mFile.setLength(size);
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        final ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(start);
+        buffer.put(log);
+        mBuffer.force();
+        // 新日志落盘之后才写另一个槽位，槽位落盘之后才切换。切换之前崩溃，打开时仍是完整的旧日志。
+        final int slot = activeSlot() ^ 1;
+        final int generation = mBuffer.getInt(slotOffset(slot ^ 1, SLOT_GENERATION)) + 1;
+        writeSlot(slot, generation, start, start + log.length);
+        mBuffer.force();
+        // 其它进程看到新代数后会在共享锁内全部重新解析。
+        mBuffer.putInt(OFFSET_SLOT, slot);
+        mBuffer.force();
+        mGeneration = generation;
+        mStart = start;
+        mParsedEnd = mSeenEnd = start + log.length;
+        mRecords = mMap.size();
+        L.i(MmapSharedPreferences.class, "[%s]rewrite, records: %s, bytes: %s, file: %s.", L.s(mName), mRecords, mParsedEnd, size);
+    }
+
+    private void scheduleCompaction() {
+        if (mCompactScheduled) return;
+        mCompactScheduled = true;
+        compactor().execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    private static synchronized ExecutorService compactor() {
+        if (sCompactor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "MmapSharedPreferences-compactor");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sCompactor = executor;
+        }
+        return sCompactor;
+    }
+
+    private Set<String> newChangedSet() {
+        synchronized (mListeners) {
+            return mListeners.isEmpty() ? null : new LinkedHashSet<String>();
+        }
+    }
+
+    private void notifyListeners(final Set<String> changed) {
+        if (changed == null || changed.isEmpty()) return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final List<OnSharedPreferenceChangeListener> listeners;
+                synchronized (mListeners) {
+                    listeners = new ArrayList<>(mListeners.keySet());
+                }
+                for (String key : changed) {
+                    for (OnSharedPreferenceChangeListener listener : listeners) {
+                        if (listener != null) listener.onSharedPreferenceChanged(MmapSharedPreferences.this, key);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void diff(Map<String, Object> old, Map<String, Object> now, Set<String> changed) {
+        for (Map.Entry<String, Object> entry : old.entrySet()) {
+            if (!entry.getValue().equals(now.get(entry.getKey()))) changed.add(entry.getKey());
+        }
+        for (String key : now.keySet()) {
+            if (!old.containsKey(key)) changed.add(key);
+        }
+    }
+
+    private static byte typeOf(Object value) {
+        if (value instanceof Integer) return T_INT;
+        if (value instanceof Long) return T_LONG;
+        if (value instanceof Float) return T_FLOAT;
+        if (value instanceof Boolean) return T_BOOL;
+        if (value instanceof String) return T_STRING;
+        if (value instanceof Set) return T_STR_SET;
+        throw new IllegalArgumentException("不支持的类型: " + value.getClass());
+    }
+
+    /**
+     * 记录格式：int 长度 | body | int CRC32(body), 其中body为：byte 类型 | [key] | [value].
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeRecord(DataOutputStream out, byte type, String key, Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        final DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(type);
+        if (key != null) writeString(body, key);
+        switch (type) {
+            case T_INT:
+                body.writeInt((Integer) value);
+                break;
+            case T_LONG:
+                body.writeLong((Long) value);
+                break;
+            case T_FLOAT:
+                body.writeFloat((Float) value);
+                break;
+            case T_BOOL:
+                body.writeByte((Boolean) value ? 1 : 0);
+                break;
+            case T_STRING:
+                writeString(body, (String) value);
+                break;
+            case T_STR_SET:
+                final Set<String> set = (Set<String>) value;
+                body.writeInt(set.size());
+                for (String s : set) {
+                    writeString(body, s);
+                }
+                break;
+            default:
+                break;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0 || length > in.remaining()) throw new IllegalArgumentException("length: " + length);
+        final String s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null) return;
+        try {
+            lock.release();
+        } catch (IOException e) {
+            L.e(MmapSharedPreferences.class, e);
+        }
+    }
+
+    private static void checkEmpty(String key) {
+        if (key == null || key.length() == 0) throw new IllegalArgumentException("key should not be empty");
+    }
+
+    private class MyEditor implements Editor {
+        /**值为null表示删除**/
+        private final Map<String, Object> mModified = new HashMap<>();
+        private boolean mClear;
+
+        @Override
+        public Editor putInt(String key, int value) {
+            checkEmpty(key);
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            checkEmpty(key);
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            checkEmpty(key);
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            checkEmpty(key);
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            checkEmpty(key);
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            checkEmpty(key);
+            mModified.put(key, values == null ? null : new HashSet<>(values));
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            checkEmpty(key);
+            mModified.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return MmapSharedPreferences.this.commit(mClear, mModified, true);
+        }
+
+        @Override
+        public void apply() {
+            MmapSharedPreferences.this.commit(mClear, mModified, false);
+        }
+    }
+
+    private static class MyContentObserver extends ContentObserver {
+        private final WeakReference<MmapSharedPreferences> mSPrefRef;
+
+        MyContentObserver(MmapSharedPreferences spref, Handler handler) {
+            super(handler);
+            mSPrefRef = new WeakReference<>(spref);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final MmapSharedPreferences spref = mSPrefRef.get();
+            // 本进程的写入已经同步过了，这里只会发现其它进程的变化并通知。
+            if (spref != null) spref.ensureFresh();
+        }
+    }
+}
@@ -16,9 +16,16 @@
 
 package hobby.wei.c.persist;
 
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import hobby.wei.c.framework.AbsApp;
 import hobby.wei.c.tools.ICache;
@@ -29,7 +36,11 @@ import static hobby.wei.c.utils.Assist.requireNonEquals;
 public class ModularKeeper extends Keeper.Wrapper {
     private static final String KEEPER_XML = "modular";
     private static final String KEEPER_META = "modular-meta";
+    /**旧版本的模块名集合，见{@link ModuleIndex}**/
     private static final String KEY_META = "meta";
+    /**userId -> 该用户的模块索引**/
+    private static final Map<String, ModuleIndex> sIndexes = new HashMap<>();
+    private static Executor sClearExecutor;
 
     private static final ICache<Tuple, ModularKeeper> sCache = new ICache.Impl.SyncGet<>(5,
             new ICache.Delegate<Tuple, ModularKeeper>() {
@@ -107,6 +118,13 @@ public class ModularKeeper extends Keeper.Wrapper {
         return (K) sCache.get(new Tuple<>(userId, module, clear, creator));
     }
 
+    /**
+     * 用于{@link KeeperPreloader}预加载，参数同{@link #get(String, String, boolean, Creator)}.
+     */
+    public static Keeper.Builder builder(String userId, String module, boolean clear) {
+        return getModule(requireNonEmpty(userId), clear ? requireNonEmpty(module) + "_c" : requireNonEmpty(module));
+    }
+
     private static Keeper.Builder getModule(String userId, String module) {
         return get(AbsApp.get().getApplicationContext(), KEEPER_XML + "-" + module)
                 .withUser(userId)
@@ -114,15 +132,17 @@ public class ModularKeeper extends Keeper.Wrapper {
     }
 
     private static void ensureModule2Meta(String userId, String module, boolean clear) {
-        final Keeper meta = getMeta(userId);
-        final Set<String> set = meta.getSharedPreferences().getStringSet(KEY_META,
-                new HashSet<String>()/*后面有add()操作*/);
-        if (!set.contains(module)) {
-            set.add(module);
-            meta.edit().putStringSet(KEY_META, set).apply();
-        }
-        if (clear) {
-            meta.keepBoolean(requireNonEquals(module, KEY_META), true);
+        getIndex(userId).register(requireNonEquals(module, KEY_META), clear);
+    }
+
+    private static ModuleIndex getIndex(String userId) {
+        synchronized (sIndexes) {
+            ModuleIndex index = sIndexes.get(userId);
+            if (index == null) {
+                index = new ModuleIndex(getMeta(userId));
+                sIndexes.put(userId, index);
+            }
+            return index;
         }
     }
 
@@ -133,17 +153,98 @@ public class ModularKeeper extends Keeper.Wrapper {
                 .ok();
     }
 
-    public static void clear(String userId) {
-        final Keeper meta = getMeta(userId);
-        final Set<String> set = meta.getSharedPreferences().getStringSet(KEY_META, Collections.<String>emptySet());
-        boolean b = false;
-        for (String module : new HashSet<>(set)) {
-            if (meta.contains(module)) {
-                if (!b) b = true;
-                getModule(userId, module).ok().edit().clear().apply();
-                set.remove(module);
+    /**
+     * 清除该用户所有可清除（{@link #get(String, String, boolean, Creator) get()}时clear为true）的模块。
+     * <p>
+     * 注意：在后台线程执行，立即返回（fire-and-forget），返回时数据可能还未清除，紧接着读取（如退出登录后马上读）
+     * 会读到旧值。需要等待完成的，在非主线程调用{@link #clearSync(String)}.
+     */
+    public static void clear(final String userId) {
+        requireNonEmpty(userId);
+        getClearExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                clearSync(userId);
+            }
+        });
+    }
+
+    /**
+     * 同{@link #clear(String)}, 但在当前线程执行。所有模块文件在一次IPC中清空，而不是每个模块各一次。
+     * 不要在主线程调用。
+     */
+    public static boolean clearSync(String userId) {
+        final Set<String> files = new HashSet<>();
+        // 重新读取一次索引，以包含其它进程新增的模块。
+        for (String module : getIndex(requireNonEmpty(userId)).load()) {
+            // 与SPrefHelper#getSPref()打开的文件名一致。
+            files.add(SPrefHelper.realFileName(getModule(userId, module).mKeepXml));
+        }
+        return MultiProcesSharedPreferences.clearAll(AbsApp.get().getApplicationContext(), files, false);
+    }
+
+    private static synchronized Executor getClearExecutor() {
+        if (sClearExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "ModularKeeper-clear");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sClearExecutor = executor;
+        }
+        return sClearExecutor;
+    }
+
+    /**
+     * 一个用户的全部模块：meta文件中每个模块一个boolean, 表示是否可清除。只在第一次用到时整体读取一次，
+     * 之后新增模块只写入它自己的这一个key.
+     * <p>
+     * 旧版本把模块名存在{@link #KEY_META}这一个StringSet里，每新增一个模块都要读出并重写整个集合，加载时迁移过来。
+     */
+    private static class ModuleIndex {
+        private final Keeper mMeta;
+        private final Map<String, Boolean> mModules = new ConcurrentHashMap<>();
+
+        ModuleIndex(Keeper meta) {
+            mMeta = meta;
+            load();
+        }
+
+        void register(String module, boolean clear) {
+            final Boolean old = mModules.put(module, clear);
+            if (old == null || old != clear) mMeta.keepBoolean(module, clear);
+        }
+
+        /**
+         * @return 可清除的模块。
+         */
+        Set<String> load() {
+            final Map<String, ?> all = mMeta.getSharedPreferences().getAll();
+            final Set<String> clearable = new HashSet<>();
+            for (Map.Entry<String, ?> entry : all.entrySet()) {
+                if (entry.getValue() instanceof Boolean) {
+                    mModules.put(entry.getKey(), (Boolean) entry.getValue());
+                    if ((Boolean) entry.getValue()) clearable.add(entry.getKey());
+                }
+            }
+            final Object legacy = all.get(KEY_META);
+            if (legacy instanceof Set) {
+                final Keeper.Transaction migrate = mMeta.batch().remove(KEY_META);
+                //noinspection unchecked
+                for (String module : (Set<String>) legacy) {
+                    if (!mModules.containsKey(module)) {
+                        mModules.put(module, false);
+                        migrate.keepBoolean(module, false);
+                    }
+                }
+                migrate.apply();
             }
+            return clearable;
         }
-        if (b) meta.edit().putStringSet(KEY_META, set).apply();
     }
 }
@@ -17,55 +17,93 @@
 package hobby.wei.c.persist;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.Observable;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import hobby.wei.c.tools.LruCache;
+import hobby.wei.c.tools.WeakRegistry;
 
 /**
+ * 注意：{@link Editor#clear()}（以及{@link #clearAll}）会以<b>key为null</b>通知所有
+ * {@link OnSharedPreferenceChangeListener}, 表示整个文件都被清空了（与Android 11起系统SharedPreferences的行为一致）。
+ * 监听器不能假定key非null.
+ *
  * @author Wei.Chou(weichou2010@gmail.com) 2015/9/2
  */
 public class MultiProcesSharedPreferences implements SharedPreferences {
     private static final boolean DEBUG = false;
     private static final String TAG = DEBUG ? "SYN-0000001" : "";
 
-    private static final Map<String, WeakReference<MultiProcesSharedPreferences>> sName2MpspMap = new HashMap<>();
+    private static final WeakRegistry<MultiProcesSharedPreferences> sName2MpspMap = new WeakRegistry<>();
     private final MyObservable mObservable = new MyObservable();
     private final ContentObserver mContentObserver;
     private final Context mContext;
     private final String mName;
     private final Cache mCache;
+    private final Object mSnapshotLock = new Object();
+    /**非null表示处于全量快照模式，见{@link #getInstance(Context, String, boolean)}**/
+    private volatile VersionCounter mVersion;
+    private volatile Snapshot mSnapshot;
+
+    /**
+     * @param fullSnapshot 是否启用全量快照模式：在本进程内持有全部数据的快照，读取时只检查一下版本号
+     *                     （{@link VersionCounter}, 一次内存访问），版本号变化了才通过一次IPC整体重新加载。
+     *                     适合读多写少的配置。对同一个文件一旦启用就一直有效。
+     */
+    public static MultiProcesSharedPreferences getInstance(Context context, String name, boolean fullSnapshot) {
+        final MultiProcesSharedPreferences mpsp = getInstance(context, name);
+        if (fullSnapshot) mpsp.enableSnapshot();
+        return mpsp;
+    }
 
-    public static MultiProcesSharedPreferences getInstance(Context context, String name) {
-        final String nameLC = name.toLowerCase();
-        WeakReference<MultiProcesSharedPreferences> ref = sName2MpspMap.get(nameLC);
-        MultiProcesSharedPreferences mpsp = ref == null ? null : ref.get();
-        if (mpsp == null) {
-            if (DEBUG) Log.d(TAG, "[getInstance]hit = false, name:" + name);
-            synchronized (MultiProcesSharedPreferences.class) {
-                ref = sName2MpspMap.get(nameLC);
-                mpsp = ref == null ? null : ref.get();
-                if (mpsp == null) {
-                    mpsp = new MultiProcesSharedPreferences(context, name);
-                    sName2MpspMap.put(nameLC, new WeakReference<>(mpsp));
-                }
+    public static MultiProcesSharedPreferences getInstance(final Context context, String name) {
+        return sName2MpspMap.get(name, new WeakRegistry.Factory<MultiProcesSharedPreferences>() {
+            @Override
+            public MultiProcesSharedPreferences create(String name) {
+                if (DEBUG) Log.d(TAG, "[getInstance]create, name:" + name);
+                return new MultiProcesSharedPreferences(context, name);
             }
-        }
-        return mpsp;
+        });
+    }
+
+    /**
+     * 在一次IPC中清空多个文件（{@link SharedPreferencesProvider#METHOD_CLEAR_FILES}），而不是每个文件各一次
+     * <code>edit().clear()</code>. 本进程内这些文件的缓存立即失效，监听器照常收到通知。
+     *
+     * @param names 实际的文件名，见{@link SPrefHelper#realFileName(String)}.
+     */
+    public static boolean clearAll(Context context, Collection<String> names, boolean commit) {
+        if (names.isEmpty()) return true;
+        final Bundle extras = new Bundle();
+        extras.putStringArray(SharedPreferencesProvider.CLEAR_FILES, names.toArray(new String[names.size()]));
+        final long begin = System.nanoTime();
+        final Bundle result = context.getContentResolver().call(SharedPreferencesProvider.getUri4Call(),
+                SharedPreferencesProvider.METHOD_CLEAR_FILES,
+                commit ? SharedPreferencesProvider.COMMIT : SharedPreferencesProvider.APPLY, extras);
+        IpcStats.recordIpc(IpcStats.Op.CLEAR, begin, IpcStats.sizeOf(extras), IpcStats.sizeOf(result), null, null);
+        for (String name : names) {
+            final MultiProcesSharedPreferences mpsp = sName2MpspMap.get(name);
+            // 快照模式下版本号已经变了，不用处理。
+            if (mpsp != null) mpsp.mCache.clear();
+        }
+        return result != null && result.getBoolean(SharedPreferencesProvider.BATCH_RESULT);
     }
 
     private MultiProcesSharedPreferences(Context context, String name) {
@@ -75,102 +113,247 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
         mCache = new Cache();
     }
 
+    private void enableSnapshot() {
+        if (mVersion != null) return;
+        synchronized (mSnapshotLock) {
+            if (mVersion != null) return;
+            final VersionCounter version = VersionCounter.of(mContext, mName);
+            if (version.isValid()) mVersion = version;
+        }
+    }
+
+    /**
+     * @return 非快照模式时为null.
+     */
+    private Map<String, Object> snapshot() {
+        final VersionCounter version = mVersion;
+        if (version == null) return null;
+        Snapshot snapshot = mSnapshot;
+        if (snapshot != null && snapshot.version == version.get()) return snapshot.map;
+        synchronized (mSnapshotLock) {
+            snapshot = mSnapshot;
+            if (snapshot == null || snapshot.version != version.get()) {
+                snapshot = loadSnapshot();
+                if (snapshot == null) return null;
+                mSnapshot = snapshot;
+            }
+            return snapshot.map;
+        }
+    }
+
+    private Snapshot loadSnapshot() {
+        final long begin = System.nanoTime();
+        final Bundle result = mContext.getContentResolver().call(SharedPreferencesProvider.getUri4Call(),
+                SharedPreferencesProvider.METHOD_SNAPSHOT, mName, null);
+        IpcStats.recordIpc(IpcStats.Op.SNAPSHOT, begin, IpcStats.sizeOf(mName), IpcStats.sizeOf(result), mName, null);
+        if (result == null) return null;
+        final Bundle values = result.getBundle(SharedPreferencesProvider.SNAPSHOT_VALUES);
+        final Map<String, Object> map = new HashMap<>();
+        for (String key : values.keySet()) {
+            final Object value = values.get(key);
+            //noinspection unchecked
+            map.put(key, value instanceof List ? new HashSet<>((List<String>) value) : value);
+        }
+        if (DEBUG) Log.d(TAG, "[loadSnapshot]name:" + mName + ", size:" + map.size());
+        return new Snapshot(result.getLong(SharedPreferencesProvider.BATCH_VERSION), map);
+    }
+
+    /**
+     * 本进程提交成功并递增了版本号之后，若期间没有其它写入（版本号正好+1），直接在快照上应用这些变更，省去一次重新加载。
+     */
+    private void patchSnapshot(long newVersion, boolean clear, Set<String> removes, Map<String, Object> puts) {
+        synchronized (mSnapshotLock) {
+            final Snapshot snapshot = mSnapshot;
+            if (snapshot == null || snapshot.version != newVersion - 1) return;
+            final Map<String, Object> map = clear ? new HashMap<String, Object>() : new HashMap<>(snapshot.map);
+            if (removes != null) map.keySet().removeAll(removes);
+            map.putAll(puts);
+            mSnapshot = new Snapshot(newVersion, map);
+        }
+    }
+
     @Override
     public int getInt(String key, int defValue) {
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            final Integer value = (Integer) snapshot.get(key);
+            return value == null ? defValue : value;
+        }
         final Integer value = mCache.getInt(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetInt(mName),
-                new String[]{key}, null, new String[]{Integer.toString(defValue)}, null);
+        if (value != null) {
+            IpcStats.recordCacheHit();
+            return value;
+        }
+        IpcStats.recordCacheMiss();
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetInt(mName);
+        final String[] projection = {key}, selectionArgs = {Integer.toString(defValue)};
+        int result = defValue;
+        final Cursor cursor = mContext.getContentResolver().query(uri, projection, null, selectionArgs, null);
         if (cursor != null) {
             try {
                 if (cursor.moveToNext()) {
-                    return cursor.getInt(0);
+                    result = cursor.getInt(0);
                 }
             } finally {
                 cursor.close();
             }
         }
-        return defValue;
+        IpcStats.recordIpc(IpcStats.Op.GET_INT, begin, sizeOf(uri, projection, selectionArgs), 4, mName, key);
+        return result;
     }
 
     @Override
     public float getFloat(String key, float defValue) {
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            final Float value = (Float) snapshot.get(key);
+            return value == null ? defValue : value;
+        }
         final Float value = mCache.getFloat(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetFloat(mName),
-                new String[]{key}, null, new String[]{Float.toString(defValue)}, null);
+        if (value != null) {
+            IpcStats.recordCacheHit();
+            return value;
+        }
+        IpcStats.recordCacheMiss();
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetFloat(mName);
+        final String[] projection = {key}, selectionArgs = {Float.toString(defValue)};
+        float result = defValue;
+        final Cursor cursor = mContext.getContentResolver().query(uri, projection, null, selectionArgs, null);
         if (cursor != null) {
             try {
                 if (cursor.moveToNext()) {
-                    return cursor.getFloat(0);
+                    result = cursor.getFloat(0);
                 }
             } finally {
                 cursor.close();
             }
         }
-        return defValue;
+        IpcStats.recordIpc(IpcStats.Op.GET_FLOAT, begin, sizeOf(uri, projection, selectionArgs), 4, mName, key);
+        return result;
     }
 
     @Override
     public long getLong(String key, long defValue) {
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            final Long value = (Long) snapshot.get(key);
+            return value == null ? defValue : value;
+        }
         final Long value = mCache.getLong(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetLong(mName),
-                new String[]{key}, null, new String[]{Long.toString(defValue)}, null);
+        if (value != null) {
+            IpcStats.recordCacheHit();
+            return value;
+        }
+        IpcStats.recordCacheMiss();
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetLong(mName);
+        final String[] projection = {key}, selectionArgs = {Long.toString(defValue)};
+        long result = defValue;
+        final Cursor cursor = mContext.getContentResolver().query(uri, projection, null, selectionArgs, null);
         if (cursor != null) {
             try {
                 if (cursor.moveToNext()) {
-                    return cursor.getLong(0);
+                    result = cursor.getLong(0);
                 }
             } finally {
                 cursor.close();
             }
         }
-        return defValue;
+        IpcStats.recordIpc(IpcStats.Op.GET_LONG, begin, sizeOf(uri, projection, selectionArgs), 8, mName, key);
+        return result;
     }
 
     @Override
     public boolean getBoolean(String key, boolean defValue) {
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            final Boolean value = (Boolean) snapshot.get(key);
+            return value == null ? defValue : value;
+        }
         final Boolean value = mCache.getBoolean(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetBoolean(mName),
-                new String[]{key}, null, new String[]{Boolean.toString(defValue)}, null);
+        if (value != null) {
+            IpcStats.recordCacheHit();
+            return value;
+        }
+        IpcStats.recordCacheMiss();
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetBoolean(mName);
+        final String[] projection = {key}, selectionArgs = {Boolean.toString(defValue)};
+        boolean result = defValue;
+        final Cursor cursor = mContext.getContentResolver().query(uri, projection, null, selectionArgs, null);
         if (cursor != null) {
             try {
                 if (cursor.moveToNext()) {
-                    return parseBoolean(cursor.getBlob(0));
+                    result = parseBoolean(cursor.getBlob(0));
                 }
             } finally {
                 cursor.close();
             }
         }
-        return defValue;
+        IpcStats.recordIpc(IpcStats.Op.GET_BOOLEAN, begin, sizeOf(uri, projection, selectionArgs),
+                IpcStats.sizeOf(SharedPreferencesProvider.FLAG_BOOL_TRUE), mName, key);
+        return result;
     }
 
     @Override
     public String getString(String key, String defValue) {
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            final String value = (String) snapshot.get(key);
+            return value == null ? defValue : value;
+        }
         final String value = mCache.getString(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetString(mName),
-                new String[]{key}, null, new String[]{defValue}, null);
+        if (value != null) {
+            IpcStats.recordCacheHit();
+            return value;
+        }
+        IpcStats.recordCacheMiss();
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetString(mName);
+        final String[] projection = {key}, selectionArgs = {defValue};
+        String result = defValue;
+        final Cursor cursor = mContext.getContentResolver().query(uri, projection, null, selectionArgs, null);
         if (cursor != null) {
             try {
                 if (cursor.moveToNext()) {
-                    return cursor.getString(0);
+                    result = cursor.getString(0);
                 }
             } finally {
                 cursor.close();
             }
         }
-        return defValue;
+        IpcStats.recordIpc(IpcStats.Op.GET_STRING, begin, sizeOf(uri, projection, selectionArgs), IpcStats.sizeOf(result),
+                mName, key);
+        return result;
     }
 
     @Override
     public Set<String> getStringSet(String key, Set<String> defValues) {
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            //noinspection unchecked
+            final Set<String> value = (Set<String>) snapshot.get(key);
+            return value == null ? defValues : value;
+        }
         final Set<String> value = mCache.getStringSet(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetStringSet(mName),
-                new String[]{key}, null, null, null);
+        if (value != null) {
+            IpcStats.recordCacheHit();
+            return value;
+        }
+        IpcStats.recordCacheMiss();
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetStringSet(mName);
+        final String[] projection = {key};
+        Set<String> result = defValues;
+        final Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
         if (cursor != null) {
             try {
                 final Set<String> set = new HashSet<String>();
@@ -178,22 +361,42 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
                     if (DEBUG) Log.i(TAG, "[getStringSet]string:" + cursor.getString(0));
                     set.add(cursor.getString(0));
                 }
-                return set;
+                result = set;
             } finally {
                 cursor.close();
             }
         }
-        return defValues;
+        IpcStats.recordIpc(IpcStats.Op.GET_STRING_SET, begin, sizeOf(uri, projection, null), IpcStats.sizeOf(result),
+                mName, key);
+        return result;
     }
 
     @Override
     public Map<String, ?> getAll() {
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            return new HashMap<>(snapshot);
+        }
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetAll(mName);
         final Map<String, Object> map = new HashMap<String, Object>();
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetAll(mName), null, null, null, null);
+        long received = 0;
+        final Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
         if (cursor != null) {
             try {
                 while (cursor.moveToNext()) {
                     final String key = cursor.getString(0);
+                    received += IpcStats.sizeOf(key) + 4/*ordinal*/;
+                    if (cursor.getInt(2) != SharedPreferencesProvider.ORDINAL_NONE) {   //StringSet的一个元素
+                        //noinspection unchecked
+                        Set<String> set = (Set<String>) map.get(key);
+                        if (set == null) map.put(key, set = new HashSet<>());
+                        set.add(cursor.getString(1));
+                        received += IpcStats.sizeOf(cursor.getString(1));
+                        if (DEBUG) Log.i(TAG, "[getAll]stringSet element:" + cursor.getString(1));
+                        continue;
+                    }
                     switch (cursor.getType(1)) {
                         case Cursor.FIELD_TYPE_NULL:
                             if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_NULL:" + null);
@@ -217,41 +420,67 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
                             if (blob.length == 1) {    //用来表示boolean
                                 map.put(key, parseBoolean(blob));
                                 if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_BLOB, boolean:" + map.get(key));
-                            } else {    //用来表示StringSet类型
+                            } else {    //用来表示空的StringSet, 非空的每个元素各占一行，见上面
                                 if (Arrays.equals(blob, SharedPreferencesProvider.FLAG_STRING_SET)) {
-                                    map.put(key, getStringSet(key, new HashSet<String>())); //defValue一个没元素的对象至少可以表示类型
-                                    if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_BLOB, stringSet:" + map.get(key));
+                                    map.put(key, new HashSet<String>());
+                                    if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_BLOB, empty stringSet");
                                 }
                             }
                             break;
                         default:
                             break;
                     }
+                    received += IpcStats.sizeOf(map.get(key));
                 }
             } finally {
                 cursor.close();
             }
         }
+        IpcStats.recordIpc(IpcStats.Op.GET_ALL, begin, sizeOf(uri, null, null), received, mName, null);
         return map;
     }
 
     @Override
     public boolean contains(String key) {
-        if (mCache.contains(key)) return true;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetContains(mName),
-                new String[]{key}, null, null, null);
+        final Map<String, Object> snapshot = snapshot();
+        if (snapshot != null) {
+            IpcStats.recordSnapshotHit();
+            return snapshot.containsKey(key);
+        }
+        if (mCache.contains(key)) {
+            IpcStats.recordCacheHit();
+            return true;
+        }
+        IpcStats.recordCacheMiss();
+        final long begin = System.nanoTime();
+        final Uri uri = SharedPreferencesProvider.getUri4GetContains(mName);
+        final String[] projection = {key};
+        boolean result = false;
+        final Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
         if (cursor != null) {
             try {
                 if (cursor.moveToNext()) {
-                    return parseBoolean(cursor.getBlob(0));
+                    result = parseBoolean(cursor.getBlob(0));
                 }
             } finally {
                 cursor.close();
             }
         }
-        return false;
+        IpcStats.recordIpc(IpcStats.Op.CONTAINS, begin, sizeOf(uri, projection, null),
+                IpcStats.sizeOf(SharedPreferencesProvider.FLAG_BOOL_TRUE), mName, key);
+        return result;
     }
 
+    /**
+     * 估算一次query发出的字节数，见{@link IpcStats}.
+     */
+    private static long sizeOf(Uri uri, String[] projection, String[] selectionArgs) {
+        return IpcStats.sizeOf(uri.toString()) + IpcStats.sizeOf(projection) + IpcStats.sizeOf(selectionArgs);
+    }
+
+    /**
+     * 清空时回调的key为null, 见类注释。
+     */
     @Override
     public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
         mObservable.registerObserver(listener);
@@ -375,164 +604,129 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
 
         @Override
         public boolean commit() {
-            final boolean bclear = sendClearOrRemove(true);
-            final boolean bint = sendInts(true);
-            final boolean bfloat = sendFloats(true);
-            final boolean blong = sendLongs(true);
-            final boolean bbool = sendBooleans(true);
-            final boolean bstring = sendStrings(true);
-            final boolean bstrset = sendStringSets(true);
-            if (DEBUG) Log.d(TAG, "[commit]success:" + (bclear && bint && bfloat && blong && bbool && bstring && bstrset));
-            return bclear && bint && bfloat && blong && bbool && bstring && bstrset;
+            final boolean success = send(true);
+            if (DEBUG) Log.d(TAG, "[commit]success:" + success);
+            return success;
         }
 
         @Override
         public void apply() {
-            sendClearOrRemove(false);
-            sendInts(false);
-            sendFloats(false);
-            sendLongs(false);
-            sendBooleans(false);
-            sendStrings(false);
-            sendStringSets(false);
-        }
-
-        private boolean sendClearOrRemove(boolean commit) {
-            boolean success = true;
-            final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-            final ContentValues contentValues = new ContentValues();
+            send(false);
+        }
+
+        /**
+         * 所有变更打包成一个Bundle, 一次IPC提交，provider端作为一个事务写入并只commit/apply一次。
+         * 以前是每个key一次{@link ContentResolver#update}, 每次都要跨进程并各自落盘。
+         */
+        private boolean send(boolean commit) {
+            final Bundle extras = new Bundle();
+            extras.putString(SharedPreferencesProvider.BATCH_MODE, commit ? SharedPreferencesProvider.COMMIT :
+                    SharedPreferencesProvider.APPLY);
+            final Cache cache = mSPref.mCache;
             if (mClearFlag) {
-                mSPref.mCache.clear();
-                final Uri uri = SharedPreferencesProvider.getUri4Clear(mSPref.mName);
-                success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                        SharedPreferencesProvider.APPLY, null);
-                if (DEBUG) Log.d(TAG, "[sendClearOrRemove]CLEAR, success:" + success);
-            } else if (mRmvSet != null) {
-                final Uri uri = SharedPreferencesProvider.getUri4Remove(mSPref.mName);
+                cache.clear();
+                extras.putBoolean(SharedPreferencesProvider.BATCH_CLEAR, true);
+            }
+            if (mRmvSet != null && !mRmvSet.isEmpty()) {
                 for (String key : mRmvSet) {
-                    mSPref.mCache.remove(key);
-                    contentValues.clear();
-                    contentValues.put(key, (String) null);
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendClearOrRemove]REMOVE, success:" + success);
+                    cache.remove(key);
                 }
+                extras.putStringArray(SharedPreferencesProvider.BATCH_REMOVE, mRmvSet.toArray(new String[mRmvSet.size()]));
             }
-            return success;
-        }
-
-        private boolean sendInts(boolean commit) {
-            //没有待发送的也应该返回成功
-            boolean success = true;
-            if (mS2IMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutInt(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+            if (mS2IMap != null && !mS2IMap.isEmpty()) {
+                final String[] keys = new String[mS2IMap.size()];
+                final int[] values = new int[keys.length];
+                int i = 0;
                 for (Map.Entry<String, Integer> entry : mS2IMap.entrySet()) {
-                    mSPref.mCache.putInt(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    //不要if(), 否则后面的update不执行
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendInts]success:" + success);
+                    cache.putInt(entry.getKey(), entry.getValue());
+                    keys[i] = entry.getKey();
+                    values[i++] = entry.getValue();
                 }
+                extras.putStringArray(SharedPreferencesProvider.BATCH_INT_KEYS, keys);
+                extras.putIntArray(SharedPreferencesProvider.BATCH_INT_VALUES, values);
             }
-            return success;
-        }
-
-        private boolean sendFloats(boolean commit) {
-            boolean success = true;
-            if (mS2FMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutFloat(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+            if (mS2FMap != null && !mS2FMap.isEmpty()) {
+                final String[] keys = new String[mS2FMap.size()];
+                final float[] values = new float[keys.length];
+                int i = 0;
                 for (Map.Entry<String, Float> entry : mS2FMap.entrySet()) {
-                    mSPref.mCache.putFloat(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendFloats]success:" + success);
+                    cache.putFloat(entry.getKey(), entry.getValue());
+                    keys[i] = entry.getKey();
+                    values[i++] = entry.getValue();
                 }
+                extras.putStringArray(SharedPreferencesProvider.BATCH_FLOAT_KEYS, keys);
+                extras.putFloatArray(SharedPreferencesProvider.BATCH_FLOAT_VALUES, values);
             }
-            return success;
-        }
-
-        private boolean sendLongs(boolean commit) {
-            boolean success = true;
-            if (mS2LMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutLong(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+            if (mS2LMap != null && !mS2LMap.isEmpty()) {
+                final String[] keys = new String[mS2LMap.size()];
+                final long[] values = new long[keys.length];
+                int i = 0;
                 for (Map.Entry<String, Long> entry : mS2LMap.entrySet()) {
-                    mSPref.mCache.putLong(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendLongs]success:" + success);
+                    cache.putLong(entry.getKey(), entry.getValue());
+                    keys[i] = entry.getKey();
+                    values[i++] = entry.getValue();
                 }
+                extras.putStringArray(SharedPreferencesProvider.BATCH_LONG_KEYS, keys);
+                extras.putLongArray(SharedPreferencesProvider.BATCH_LONG_VALUES, values);
             }
-            return success;
-        }
-
-        private boolean sendBooleans(boolean commit) {
-            boolean success = true;
-            if (mS2BMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutBoolean(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+            if (mS2BMap != null && !mS2BMap.isEmpty()) {
+                final String[] keys = new String[mS2BMap.size()];
+                final boolean[] values = new boolean[keys.length];
+                int i = 0;
                 for (Map.Entry<String, Boolean> entry : mS2BMap.entrySet()) {
-                    mSPref.mCache.putBoolean(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendBooleans]success:" + success);
+                    cache.putBoolean(entry.getKey(), entry.getValue());
+                    keys[i] = entry.getKey();
+                    values[i++] = entry.getValue();
                 }
+                extras.putStringArray(SharedPreferencesProvider.BATCH_BOOL_KEYS, keys);
+                extras.putBooleanArray(SharedPreferencesProvider.BATCH_BOOL_VALUES, values);
             }
-            return success;
-        }
-
-        private boolean sendStrings(boolean commit) {
-            boolean success = true;
-            if (mS2SMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutString(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+            if (mS2SMap != null && !mS2SMap.isEmpty()) {
+                final String[] keys = new String[mS2SMap.size()];
+                final String[] values = new String[keys.length];
+                int i = 0;
                 for (Map.Entry<String, String> entry : mS2SMap.entrySet()) {
-                    mSPref.mCache.putString(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendStrings]success:" + success);
+                    cache.putString(entry.getKey(), entry.getValue());
+                    keys[i] = entry.getKey();
+                    values[i++] = entry.getValue();
                 }
+                extras.putStringArray(SharedPreferencesProvider.BATCH_STRING_KEYS, keys);
+                extras.putStringArray(SharedPreferencesProvider.BATCH_STRING_VALUES, values);
             }
-            return success;
+            if (mS2EMap != null && !mS2EMap.isEmpty()) {
+                final Bundle sets = new Bundle();
+                for (Map.Entry<String, Set<String>> entry : mS2EMap.entrySet()) {
+                    cache.putStringSet(entry.getKey(), entry.getValue());
+                    sets.putStringArrayList(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+                extras.putBundle(SharedPreferencesProvider.BATCH_STR_SETS, sets);
+            }
+            final long begin = System.nanoTime();
+            final Bundle result = mSPref.mContext.getContentResolver().call(SharedPreferencesProvider.getUri4Call(),
+                    SharedPreferencesProvider.METHOD_BATCH, mSPref.mName, extras);
+            IpcStats.recordIpc(IpcStats.Op.BATCH, begin, IpcStats.sizeOf(mSPref.mName) + IpcStats.sizeOf(extras),
+                    IpcStats.sizeOf(result), mSPref.mName, null);
+            if (result == null) return false;
+            // 没有改变数据时版本号不会递增，返回的可能是其它进程写入之后的版本号，不能据此修补快照。
+            if (mSPref.mVersion != null && result.getBoolean(SharedPreferencesProvider.BATCH_CHANGED)) {
+                mSPref.patchSnapshot(result.getLong(SharedPreferencesProvider.BATCH_VERSION), mClearFlag, mRmvSet, puts());
+            }
+            return result.getBoolean(SharedPreferencesProvider.BATCH_RESULT);
         }
 
-        private boolean sendStringSets(boolean commit) {
-            boolean success = true;
+        private Map<String, Object> puts() {
+            final Map<String, Object> puts = new HashMap<>();
+            if (mS2IMap != null) puts.putAll(mS2IMap);
+            if (mS2FMap != null) puts.putAll(mS2FMap);
+            if (mS2LMap != null) puts.putAll(mS2LMap);
+            if (mS2BMap != null) puts.putAll(mS2BMap);
+            if (mS2SMap != null) puts.putAll(mS2SMap);
             if (mS2EMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutStringSet(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
                 for (Map.Entry<String, Set<String>> entry : mS2EMap.entrySet()) {
-                    mSPref.mCache.putStringSet(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    final String key = entry.getKey();
-                    int count = 0;
-                    for (String value : entry.getValue()) {
-                        contentValues.put(key + (count++ == 0 ? "" : count), value);
-                    }
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendStringSets]success:" + success);
+                    puts.put(entry.getKey(), new HashSet<>(entry.getValue()));
                 }
             }
-            return success;
+            return puts;
         }
     }
 
@@ -647,12 +841,23 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
         }
 
         public boolean contains(String key) {
-            return (mS2IMap != null && mS2IMap.snapshot().containsKey(key))
-                    || (mS2FMap != null && mS2FMap.snapshot().containsKey(key))
-                    || (mS2LMap != null && mS2LMap.snapshot().containsKey(key))
-                    || (mS2BMap != null && mS2BMap.snapshot().containsKey(key))
-                    || (mS2SMap != null && mS2SMap.snapshot().containsKey(key))
-                    || (mS2EMap != null && mS2EMap.snapshot().containsKey(key));
+            return (mS2IMap != null && mS2IMap.containsKey(key))
+                    || (mS2FMap != null && mS2FMap.containsKey(key))
+                    || (mS2LMap != null && mS2LMap.containsKey(key))
+                    || (mS2BMap != null && mS2BMap.containsKey(key))
+                    || (mS2SMap != null && mS2SMap.containsKey(key))
+                    || (mS2EMap != null && mS2EMap.containsKey(key));
+        }
+    }
+
+    private static class Snapshot {
+        final long version;
+        /**不可修改，变更时整体替换**/
+        final Map<String, Object> map;
+
+        Snapshot(long version, Map<String, Object> map) {
+            this.version = version;
+            this.map = map;
         }
     }
 
@@ -661,10 +866,15 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
             return mObservers.size();
         }
 
-        public void notifyChanged(SharedPreferences spref, String key) {
+        /**
+         * 一次通知中的所有key在一轮中分发完。key为null表示clear().
+         */
+        public void notifyChanged(SharedPreferences spref, Collection<String> keys) {
             synchronized (mObservers) {
-                for (int i = mObservers.size() - 1; i >= 0; i--) {
-                    mObservers.get(i).onSharedPreferenceChanged(spref, key);
+                for (String key : keys) {
+                    for (int i = mObservers.size() - 1; i >= 0; i--) {
+                        mObservers.get(i).onSharedPreferenceChanged(spref, key);
+                    }
                 }
             }
         }
@@ -680,15 +890,11 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
 
         public void onChange(boolean selfChange, Uri uri) {
             if (DEBUG) Log.d(TAG, "[onChange]selfChange:" + selfChange + ", uri:" + uri);
-            final String[] name$key = SharedPreferencesProvider.parseNotifyNameAndKey(uri);
-            if (DEBUG) Log.d(TAG, "[onChange]name:" + name$key[0] + ", key:" + name$key[1]);
+            //SharedPreferencesProvider.NOTIFY_CLEAR类型key为null, NOTIFY_BATCH类型有多个
+            final List<String> keys = SharedPreferencesProvider.parseNotifyKeys(uri);
+            if (DEBUG) Log.d(TAG, "[onChange]keys:" + keys);
             final MultiProcesSharedPreferences spref = mSPrefRef.get();
-            if (spref != null) {
-                final String key = name$key[1];
-                if (key != null) {  //SharedPreferencesProvider.NOTIFY_CLEAR类型没有key
-                    spref.mObservable.notifyChanged(spref, key);
-                }
-            }
+            if (spref != null && !keys.isEmpty()) spref.mObservable.notifyChanged(spref, keys);
         }
     }
 
@@ -33,6 +33,7 @@ import android.os.Build;
 public class SPrefHelper {
 	private static final SPrefHelper sSPrefHelper = new SPrefHelper();
 	private static final SPrefHelper sMultiProcess = new MultiProcess();
+	private static final SPrefHelper sMmap = new Mmap();
 	private final List<SharedPreferences> mSpRef = new LinkedList<SharedPreferences>();
 	private final Map<String, SharedPreferences> mSpMap = new HashMap<String, SharedPreferences>();
 
@@ -47,6 +48,14 @@ public class SPrefHelper {
 		return sMultiProcess;
 	}
 
+	/**
+	 * 基于内存映射文件的跨进程实现，读取不经过IPC, 见{@link MmapSharedPreferences}.
+	 * 与{@link #multiProcess()}的数据不互通。
+	 */
+	public static SPrefHelper mmap() {
+		return sMmap;
+	}
+
 	public SharedPreferences getSPref(Context context, String fileName) {
 		return getSPrefInner(context, replace$(fileName));
 	}
@@ -129,6 +138,14 @@ public class SPrefHelper {
 		return c.getName();
 	}
 
+	/**
+	 * {@link #getSPref(Context, String)}等方法实际使用的文件名（'$'替换为'.'）。绕过本类直接按文件名操作时（如
+	 * {@link MultiProcesSharedPreferences#clearAll}）需先经过本方法转换。
+	 */
+	public static String realFileName(String fileName) {
+		return replace$(fileName);
+	}
+
 	private static String replace$(String s) {
 		return s.replaceAll("\\$", ".");    //不然会被解释为正则的的末尾字符，然后在末尾加上.字符
 	}
@@ -146,4 +163,14 @@ public class SPrefHelper {
 			return MultiProcesSharedPreferences.getInstance(context, fileName);
 		}
 	}
+
+	private static class Mmap extends SPrefHelper {
+		private Mmap() {
+		}
+
+		@Override
+		protected SharedPreferences getSPrefInner(Context context, String fileName) {
+			return MmapSharedPreferences.getInstance(context, fileName);
+		}
+	}
 }
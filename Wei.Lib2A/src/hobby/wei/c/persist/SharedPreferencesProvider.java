@@ -29,14 +29,22 @@ import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
 import android.text.TextUtils;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import hobby.wei.c.framework.AbsApp;
 
@@ -59,13 +67,52 @@ public class SharedPreferencesProvider extends ContentProvider {
 
     private static final String KEY                 = "key";
     private static final String VALUE               = "value";
+    private static final String ORDINAL             = "ordinal";
+    /**{@link #getUri4GetAll(String)}返回的行中，ORDINAL列为该值表示非StringSet的元素**/
+    public static final int ORDINAL_NONE            = -1;
 
     public static final String APPLY                = "apply";
     public static final String COMMIT               = "commit";
+    /**{@link #getUri4GetAll(String)}中表示空的StringSet**/
     public static final byte[] FLAG_STRING_SET      = "flag_string_set".getBytes();
     public static final byte[] FLAG_BOOL_TRUE       = new byte[]{1};
     public static final byte[] FLAG_BOOL_FALSE      = new byte[]{0};
 
+    /**{@link #call(String, String, Bundle)}的method: 批量提交一个Editor的所有变更，arg为文件名**/
+    public static final String METHOD_BATCH         = "batch";
+    /**{@link #call(String, String, Bundle)}的method: 读取全部数据的快照，arg为文件名。
+     * 返回的Bundle中{@link #BATCH_VERSION}为版本号，{@link #SNAPSHOT_VALUES}为全部数据（保留类型，StringSet为ArrayList）**/
+    public static final String METHOD_SNAPSHOT      = "snapshot";
+    public static final String SNAPSHOT_VALUES      = "values";
+    /**{@link #call(String, String, Bundle)}的method: 一次清空多个文件，arg为{@link #APPLY}|{@link #COMMIT},
+     * 文件名在{@link #CLEAR_FILES}中**/
+    public static final String METHOD_CLEAR_FILES   = "clearFiles";
+    public static final String CLEAR_FILES          = "files";
+    /**以下为批量提交的Bundle的key**/
+    public static final String BATCH_MODE           = "mode";   // APPLY|COMMIT
+    public static final String BATCH_CLEAR          = "clear";
+    public static final String BATCH_REMOVE         = "remove";
+    public static final String BATCH_INT_KEYS       = "i.k";
+    public static final String BATCH_INT_VALUES     = "i.v";
+    public static final String BATCH_FLOAT_KEYS     = "f.k";
+    public static final String BATCH_FLOAT_VALUES   = "f.v";
+    public static final String BATCH_LONG_KEYS      = "l.k";
+    public static final String BATCH_LONG_VALUES    = "l.v";
+    public static final String BATCH_BOOL_KEYS      = "b.k";
+    public static final String BATCH_BOOL_VALUES    = "b.v";
+    public static final String BATCH_STRING_KEYS    = "s.k";
+    public static final String BATCH_STRING_VALUES  = "s.v";
+    /**值为Bundle: key -> ArrayList&lt;String&gt;**/
+    public static final String BATCH_STR_SETS       = "e";
+    /**返回的Bundle中表示是否成功**/
+    public static final String BATCH_RESULT         = "result";
+    /**返回的Bundle中表示本次提交之后的版本号，见{@link VersionCounter}**/
+    public static final String BATCH_VERSION        = "version";
+    /**返回的Bundle中表示本次提交是否改变了数据（即是否递增了版本号）**/
+    public static final String BATCH_CHANGED        = "changed";
+    /**批量变更通知的Uri中，变更的key作为query参数（可重复）**/
+    private static final String QUERY_KEY           = "k";
+
     /**e.g: content://com.xxx.MPSPREF/(p|g)/(i|s|...)/fileName,
      * 变更反馈，
      * e.g: content://com.xxx.MPSPREF/fileName/(key|N)/(r|c|i|...)**/
@@ -80,6 +127,9 @@ public class SharedPreferencesProvider extends ContentProvider {
     private static final String sRemove             = "r";
     private static final String sClear              = "c";
     private static final String sClearKey4Notify    = "N";
+    private static final String sBatch              = "m";
+    /**{@link #getUri4NotifyMmap(String)}的第一段，文件名不能包含路径分隔符**/
+    private static final String sMmap4Notify        = SEP + "mmap";
 
     private static final String sInt                = "i";
     private static final String sFloat              = "f";
@@ -118,6 +168,13 @@ public class SharedPreferencesProvider extends ContentProvider {
 
     public static final int NOTIFY_REMOVE           = 22;
     public static final int NOTIFY_CLEAR            = 23;
+    /**批量变更，一次通知包含多个key. 合并窗口内只有一个key变更时仍以{@link #NOTIFY_CHANGE_INT}等或{@link #NOTIFY_REMOVE}通知**/
+    public static final int NOTIFY_BATCH            = 24;
+
+    private static volatile long sNotifyWindowMillis = 20;
+    private static volatile long sGroupCommitWindowMillis = 0;
+    private Notifier mNotifier;
+    private final Map<String, GroupCommit> mGroupCommits = new HashMap<>();
 
     private static final UriMatcher sUriMatcher     = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -152,6 +209,7 @@ public class SharedPreferencesProvider extends ContentProvider {
         sUriMatcher.addURI(AUTHORITY, NODE_TEXT + SEP + NODE_TEXT + SEP + sRemove, NOTIFY_REMOVE);
         //NODE_TEXT + SEP + sClearKey4Notify + SEP + sClear无法通过匹配
         sUriMatcher.addURI(AUTHORITY, NODE_TEXT + SEP + NODE_TEXT + SEP + sClear, NOTIFY_CLEAR);
+        sUriMatcher.addURI(AUTHORITY, NODE_TEXT + SEP + NODE_TEXT + SEP + sBatch, NOTIFY_BATCH);
     }
 
     public static Uri getUri4PutInt(String name) {
@@ -218,11 +276,28 @@ public class SharedPreferencesProvider extends ContentProvider {
         return makeUri(sClear, null, name);
     }
 
+    /**用于{@link ContentResolver#call(Uri, String, String, Bundle)}**/
+    public static Uri getUri4Call() {
+        return Uri.parse(SCHEME + AUTHORITY);
+    }
+
     public static Uri getUri4NotifyObserver(String name) {
         if (TextUtils.isEmpty(name)) throw newException4NullName();
         return Uri.parse(String.format(URI_NOTIFY_OBSERVER, name));
     }
 
+    /**
+     * {@link MmapSharedPreferences}用于跨进程通知变化的Uri, 不经过本Provider. 必须使用已声明的{@link #AUTHORITY},
+     * 否则targetSdk 26+在Android 8.0+上notifyChange和registerContentObserver会抛出SecurityException.
+     * e.g: content://com.xxx.MPSPREF/%2Fmmap/fileName, 第一段解码后含有路径分隔符，不可能是文件名，
+     * 因此不会落在{@link #getUri4NotifyObserver(String)}之下。
+     */
+    public static Uri getUri4NotifyMmap(String name) {
+        if (TextUtils.isEmpty(name)) throw newException4NullName();
+        return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(AUTHORITY)
+                .appendPath(sMmap4Notify).appendPath(name).build();
+    }
+
     private static Uri makeUri(String action, String type, String name) {
         if (TextUtils.isEmpty(name)) throw newException4NullName();
         return Uri.parse(type == null ? String.format(URI_FORMAT_2S, action, name) :
@@ -230,10 +305,35 @@ public class SharedPreferencesProvider extends ContentProvider {
     }
 
     /** e.g: content://com.xxx.MPSPREF/fileName/(key|N)/(r|c|i|...) **/
+    private static String notifyTypeOf(int match) {
+        switch (match) {
+            case PUT_INT: return sInt;
+            case PUT_FLOAT: return sFloat;
+            case PUT_LONG: return sLong;
+            case PUT_BOOL: return sBool;
+            case PUT_STRING: return sString;
+            case PUT_STR_SET: return sStrSet;
+            case REMOVE: return sRemove;
+            default: throw newException4UnsupportedOperation();
+        }
+    }
+
     private static Uri makeNotifyUri(String actionOrType, String name, String key) {
         return Uri.parse(String.format(URI_FORMAT_3S, name, key, actionOrType));
     }
 
+    /** e.g: content://com.xxx.MPSPREF/fileName/N/m?k=key1&k=key2 **/
+    private static Uri makeBatchNotifyUri(String name, Set<String> keys) {
+        final Uri.Builder builder = makeNotifyUri(sBatch, name, sClearKey4Notify).buildUpon();
+        for (String key : keys) {
+            builder.appendQueryParameter(QUERY_KEY, key);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return 通知的类型（{@link #NOTIFY_CHANGE_INT}等，{@link #NOTIFY_REMOVE}, {@link #NOTIFY_CLEAR}或{@link #NOTIFY_BATCH}）。
+     */
     public static int parseNotifyType(Uri uri) {
         return sUriMatcher.match(uri);
     }
@@ -258,12 +358,50 @@ public class SharedPreferencesProvider extends ContentProvider {
             case NOTIFY_REMOVE:
                 return new String[]{list.get(list.size() - 3), list.get(list.size() - 2)};
             case NOTIFY_CLEAR:
+            case NOTIFY_BATCH:
                 return new String[]{list.get(list.size() - 3), null};
             default:
                 throw newException4IllegalUri();
         }
     }
 
+    /**
+     * 解析通知<code>Uri</code>中所有变更了的key.
+     *
+     * @return {@link #NOTIFY_CLEAR}为只含一个null的列表（与Android R起的系统实现一致，clear()以null key通知）。
+     */
+    public static List<String> parseNotifyKeys(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case NOTIFY_BATCH:
+                return uri.getQueryParameters(QUERY_KEY);
+            case NOTIFY_CLEAR:
+                return Collections.<String>singletonList(null);
+            default:
+                return Collections.singletonList(parseNotifyNameAndKey(uri)[1]);
+        }
+    }
+
+    /**
+     * 设置变更通知的合并窗口：窗口内对同一文件的所有变更合并为一次通知。为0则每次提交立即通知（一次提交内的变更仍合并）。
+     * 仅对{@link SharedPreferencesProvider}所在的进程有效。
+     */
+    public static void setNotifyWindow(long millis) {
+        sNotifyWindowMillis = Math.max(0, millis);
+    }
+
+    /**
+     * 设置组提交的等待窗口：一组commit的第一个调用方（leader）在写文件之前再等待这么久，收集更多的调用方一起提交。
+     * 为0则不额外等待，只合并上一次写文件期间到达的commit. 仅对{@link SharedPreferencesProvider}所在的进程有效。
+     */
+    public static void setGroupCommitWindow(long millis) {
+        sGroupCommitWindowMillis = Math.max(0, millis);
+    }
+
+    private synchronized Notifier notifier() {
+        if (mNotifier == null) mNotifier = new Notifier(getContext().getContentResolver());
+        return mNotifier;
+    }
+
     @Override
     public boolean onCreate() {
         return false;
@@ -305,18 +443,28 @@ public class SharedPreferencesProvider extends ContentProvider {
                 }
                 break;
             case GET_ALL:
-                final MatrixCursor cursorAll = new MatrixCursor(new String[]{KEY, VALUE});
+                // 一次返回全部数据：每行为key, value, ordinal. StringSet的每个元素各占一行（ordinal为其序号），
+                // 空的StringSet占一行，value为FLAG_STRING_SET; 其它类型ordinal为ORDINAL_NONE.
+                final MatrixCursor cursorAll = new MatrixCursor(new String[]{KEY, VALUE, ORDINAL});
                 final Map<String, ?> map = spref.getAll();
                 if (map != null) {
                     final Set<? extends Map.Entry<String, ?>> entries = map.entrySet();
                     for (Map.Entry<String, ?> entry : entries) {
                         final Object value = entry.getValue();
                         if (value instanceof Set) {  //StringSet
-                            cursorAll.addRow(new Object[]{entry.getKey(), FLAG_STRING_SET});
+                            final Set<?> strSet = (Set<?>) value;
+                            if (strSet.isEmpty()) {
+                                cursorAll.addRow(new Object[]{entry.getKey(), FLAG_STRING_SET, ORDINAL_NONE});
+                            } else {
+                                int ordinal = 0;
+                                for (Object s : strSet) {
+                                    cursorAll.addRow(new Object[]{entry.getKey(), s, ordinal++});
+                                }
+                            }
                         } else if (value instanceof Boolean) {
-                            cursorAll.addRow(new Object[]{entry.getKey(), (Boolean) value ? FLAG_BOOL_TRUE : FLAG_BOOL_FALSE});
+                            cursorAll.addRow(new Object[]{entry.getKey(), (Boolean) value ? FLAG_BOOL_TRUE : FLAG_BOOL_FALSE, ORDINAL_NONE});
                         } else {
-                            cursorAll.addRow(new Object[]{entry.getKey(), value});
+                            cursorAll.addRow(new Object[]{entry.getKey(), value, ORDINAL_NONE});
                         }
                     }
                 }
@@ -338,11 +486,11 @@ public class SharedPreferencesProvider extends ContentProvider {
         final String name = uri.getLastPathSegment();
         final SharedPreferences spref = getContext().getSharedPreferences(name, Context.MODE_PRIVATE);
         final Editor editor = spref.edit();
-        Uri uri4Notify = null;
         String key = null;
         boolean keyNotEmpty = false;
         boolean valueChanged = false;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             case PUT_INT:
                 for (String k : values.keySet()) {
                     key = k;
@@ -354,8 +502,7 @@ public class SharedPreferencesProvider extends ContentProvider {
                     break;
                 }
                 if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sInt, name, key);
+                    endPut(name, editor, commitOrApply);
                 }
                 break;
             case PUT_FLOAT:
@@ -369,8 +516,7 @@ public class SharedPreferencesProvider extends ContentProvider {
                     break;
                 }
                 if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sFloat, name, key);
+                    endPut(name, editor, commitOrApply);
                 }
                 break;
             case PUT_LONG:
@@ -384,8 +530,7 @@ public class SharedPreferencesProvider extends ContentProvider {
                     break;
                 }
                 if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sLong, name, key);
+                    endPut(name, editor, commitOrApply);
                 }
                 break;
             case PUT_BOOL:
@@ -399,8 +544,7 @@ public class SharedPreferencesProvider extends ContentProvider {
                     break;
                 }
                 if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sBool, name, key);
+                    endPut(name, editor, commitOrApply);
                 }
                 break;
             case PUT_STRING:
@@ -414,8 +558,7 @@ public class SharedPreferencesProvider extends ContentProvider {
                     break;
                 }
                 if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sString, name, key);
+                    endPut(name, editor, commitOrApply);
                 }
                 break;
             case PUT_STR_SET:
@@ -431,8 +574,7 @@ public class SharedPreferencesProvider extends ContentProvider {
                 if (keyNotEmpty) {
                     valueChanged = !equals(newValue, spref.getStringSet(key, getNotEqualWith(null, newValue)));
                     editor.putStringSet(key, newValue);
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sStrSet, name, key);
+                    endPut(name, editor, commitOrApply);
                 }
                 break;
             case REMOVE:
@@ -445,23 +587,158 @@ public class SharedPreferencesProvider extends ContentProvider {
                     break;
                 }
                 if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sRemove, name, key);
+                    endPut(name, editor, commitOrApply);
                 }
                 break;
             case CLEAR:
                 valueChanged = keyNotEmpty = true;
                 editor.clear();
-                endPut(editor, commitOrApply);
-                uri4Notify = makeNotifyUri(sClear, name, sClearKey4Notify);
+                endPut(name, editor, commitOrApply);
                 break;
             default:
                 throw newException4UnsupportedOperation();
         }
-        if (valueChanged) getContext().getContentResolver().notifyChange(uri4Notify, null);
+        if (valueChanged) {
+            VersionCounter.of(getContext(), name).increment();
+            if (match == CLEAR) notifier().cleared(name);
+            else notifier().changed(name, Collections.singletonMap(key, notifyTypeOf(match)));
+        }
         return keyNotEmpty ? 1 : 0;
     }
 
+    /**
+     * 批量提交：一个Editor的所有变更在一次IPC中传过来，作为一个事务写入，只commit/apply一次，
+     * 并且只发出一次包含所有变更key的通知（{@link #NOTIFY_BATCH}, 只有一个key变更时为该key的类型）。
+     */
+    @Override
+    public Bundle call(String method, String name, Bundle extras) {
+        if (!METHOD_BATCH.equals(method) && !METHOD_SNAPSHOT.equals(method) && !METHOD_CLEAR_FILES.equals(method))
+            return super.call(method, name, extras);
+        checkPermission();
+        if (TextUtils.isEmpty(name)) throw newException4NullName();
+        final Bundle result = new Bundle();
+        if (METHOD_SNAPSHOT.equals(method)) snapshot(name, result);
+        else if (METHOD_CLEAR_FILES.equals(method)) clearFiles(extras.getStringArray(CLEAR_FILES), name, result);
+        else applyBatch(name, extras, result);
+        return result;
+    }
+
+    /**
+     * 在一次IPC中清空多个文件（如退出登录时清除该用户的全部模块）。本来就是空的文件不写也不通知。
+     */
+    @SuppressLint("CommitPrefEdits")
+    private void clearFiles(String[] names, String action, Bundle result) {
+        boolean success = true;
+        if (names != null) {
+            for (String name : names) {
+                if (TextUtils.isEmpty(name)) continue;
+                final SharedPreferences spref = getContext().getSharedPreferences(name, Context.MODE_PRIVATE);
+                if (spref.getAll().isEmpty()) continue;
+                success &= endPut(name, spref.edit().clear(), action);
+                VersionCounter.of(getContext(), name).increment();
+                notifier().cleared(name);
+            }
+        }
+        result.putBoolean(BATCH_RESULT, success);
+    }
+
+    private void snapshot(String name, Bundle result) {
+        // 先读版本号再读数据：数据只会比版本号新，最多导致调用方多加载一次，而不会漏掉变化。
+        result.putLong(BATCH_VERSION, VersionCounter.of(getContext(), name).get());
+        final Bundle values = new Bundle();
+        final Map<String, ?> map = getContext().getSharedPreferences(name, Context.MODE_PRIVATE).getAll();
+        if (map != null) {
+            for (Map.Entry<String, ?> entry : map.entrySet()) {
+                final String key = entry.getKey();
+                final Object value = entry.getValue();
+                if (value instanceof Integer) values.putInt(key, (Integer) value);
+                else if (value instanceof Long) values.putLong(key, (Long) value);
+                else if (value instanceof Float) values.putFloat(key, (Float) value);
+                else if (value instanceof Boolean) values.putBoolean(key, (Boolean) value);
+                else if (value instanceof String) values.putString(key, (String) value);
+                else if (value instanceof Set) //noinspection unchecked
+                    values.putStringArrayList(key, new ArrayList<>((Set<String>) value));
+            }
+        }
+        result.putBundle(SNAPSHOT_VALUES, values);
+    }
+
+    @SuppressLint("CommitPrefEdits")
+    private void applyBatch(String name, Bundle extras, Bundle result) {
+        final SharedPreferences spref = getContext().getSharedPreferences(name, Context.MODE_PRIVATE);
+        final Editor editor = spref.edit();
+        /*变更了的key -> 通知的类型*/
+        final Map<String, String> changed = new LinkedHashMap<>();
+        final boolean clear = extras.getBoolean(BATCH_CLEAR);
+        // 与Editor的语义一致：clear先于其他所有操作，因此变化与否都以clear之后为准。
+        if (clear) editor.clear();
+        final String[] removes = extras.getStringArray(BATCH_REMOVE);
+        if (removes != null) {
+            for (String key : removes) {
+                if (!clear && spref.contains(key)) changed.put(key, sRemove);
+                editor.remove(key);
+            }
+        }
+        final String[] intKeys = extras.getStringArray(BATCH_INT_KEYS);
+        if (intKeys != null) {
+            final int[] values = extras.getIntArray(BATCH_INT_VALUES);
+            for (int i = 0; i < intKeys.length; i++) {
+                if (clear || values[i] != spref.getInt(intKeys[i], getNotEqualWith(0, values[i]))) changed.put(intKeys[i], sInt);
+                editor.putInt(intKeys[i], values[i]);
+            }
+        }
+        final String[] floatKeys = extras.getStringArray(BATCH_FLOAT_KEYS);
+        if (floatKeys != null) {
+            final float[] values = extras.getFloatArray(BATCH_FLOAT_VALUES);
+            for (int i = 0; i < floatKeys.length; i++) {
+                if (clear || !equals(values[i], spref.getFloat(floatKeys[i], getNotEqualWith(0f, values[i]))))
+                    changed.put(floatKeys[i], sFloat);
+                editor.putFloat(floatKeys[i], values[i]);
+            }
+        }
+        final String[] longKeys = extras.getStringArray(BATCH_LONG_KEYS);
+        if (longKeys != null) {
+            final long[] values = extras.getLongArray(BATCH_LONG_VALUES);
+            for (int i = 0; i < longKeys.length; i++) {
+                if (clear || values[i] != spref.getLong(longKeys[i], getNotEqualWith(0, values[i]))) changed.put(longKeys[i], sLong);
+                editor.putLong(longKeys[i], values[i]);
+            }
+        }
+        final String[] boolKeys = extras.getStringArray(BATCH_BOOL_KEYS);
+        if (boolKeys != null) {
+            final boolean[] values = extras.getBooleanArray(BATCH_BOOL_VALUES);
+            for (int i = 0; i < boolKeys.length; i++) {
+                if (clear || values[i] ^ spref.getBoolean(boolKeys[i], getNotEqualWith(false, values[i]))) changed.put(boolKeys[i], sBool);
+                editor.putBoolean(boolKeys[i], values[i]);
+            }
+        }
+        final String[] stringKeys = extras.getStringArray(BATCH_STRING_KEYS);
+        if (stringKeys != null) {
+            final String[] values = extras.getStringArray(BATCH_STRING_VALUES);
+            for (int i = 0; i < stringKeys.length; i++) {
+                if (clear || !equals(values[i], spref.getString(stringKeys[i], getNotEqualWith(null, values[i]))))
+                    changed.put(stringKeys[i], sString);
+                editor.putString(stringKeys[i], values[i]);
+            }
+        }
+        final Bundle strSets = extras.getBundle(BATCH_STR_SETS);
+        if (strSets != null) {
+            for (String key : strSets.keySet()) {
+                final Set<String> value = new HashSet<>(strSets.getStringArrayList(key));
+                if (clear || !equals(value, spref.getStringSet(key, getNotEqualWith(null, value)))) changed.put(key, sStrSet);
+                editor.putStringSet(key, value);
+            }
+        }
+        final boolean success = endPut(name, editor, extras.getString(BATCH_MODE));
+        final VersionCounter version = VersionCounter.of(getContext(), name);
+        result.putBoolean(BATCH_RESULT, success);
+        final boolean modified = clear || !changed.isEmpty();
+        result.putBoolean(BATCH_CHANGED, modified);
+        result.putLong(BATCH_VERSION, modified ? version.increment() : version.get());
+        if (clear) notifier().cleared(name);
+        if (!changed.isEmpty()) notifier().changed(name, changed);
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         throw newException4UnsupportedOperation();
@@ -472,12 +749,22 @@ public class SharedPreferencesProvider extends ContentProvider {
         throw newException4UnsupportedOperation();
     }
 
-    private void endPut(Editor editor, String action) {
-        if (action.equalsIgnoreCase(APPLY)) {
-            editor.apply();
-        } else {
-            editor.commit();
+    /**
+     * 变更总是先以{@link Editor#apply()}写入内存（随后的读立即可见，系统会合并异步落盘），commit的调用方再通过
+     * {@link GroupCommit}等待落盘：并发的多个commit合并为一次写文件，而不是每次都重写整个xml.
+     */
+    private boolean endPut(String name, Editor editor, String action) {
+        editor.apply();
+        if (APPLY.equalsIgnoreCase(action)) return true;
+        GroupCommit group;
+        synchronized (mGroupCommits) {
+            group = mGroupCommits.get(name);
+            if (group == null) {
+                group = new GroupCommit(getContext().getSharedPreferences(name, Context.MODE_PRIVATE));
+                mGroupCommits.put(name, group);
+            }
         }
+        return group.awaitDurable();
     }
 
     private static int getNotEqualWith(int result, int notEqual) {
@@ -528,4 +815,174 @@ public class SharedPreferencesProvider extends ContentProvider {
     private static RuntimeException newException4UnsupportedOperation() {
         return new UnsupportedOperationException("不支持的操作");
     }
+
+    /**
+     * 合并变更通知：每次{@link ContentResolver#notifyChange}都会扇出到所有进程中注册了的{@link ContentObserver}, 再经主线程
+     * Handler到达监听器，批量修改时会形成通知风暴。这里把一个窗口（{@link #setNotifyWindow(long)}）内同一文件的变更
+     * 合并为一次{@link #NOTIFY_BATCH}通知；只有一个key变更时仍发出该key的类型的通知，以兼容按{@link #parseNotifyType(Uri)}
+     * 和{@link #parseNotifyNameAndKey(Uri)}解析的监听方。
+     */
+    private static class Notifier {
+        private static ScheduledExecutorService sExecutor;
+
+        private final ContentResolver mResolver;
+        /**以下由this保护。value为变更了的key -> 通知的类型（最后一次变更的）**/
+        private final Map<String, Map<String, String>> mPending = new HashMap<>();
+        private final Set<String> mCleared = new HashSet<>();
+        private boolean mScheduled;
+
+        Notifier(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        void changed(String name, Map<String, String> keyTypes) {
+            synchronized (this) {
+                Map<String, String> pending = mPending.get(name);
+                if (pending == null) mPending.put(name, pending = new LinkedHashMap<>());
+                pending.putAll(keyTypes);
+            }
+            schedule();
+        }
+
+        void cleared(String name) {
+            synchronized (this) {
+                mCleared.add(name);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            final long window = sNotifyWindowMillis;
+            if (window <= 0) {
+                flush();
+                return;
+            }
+            synchronized (this) {
+                if (mScheduled) return;
+                mScheduled = true;
+            }
+            executor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+
+        private void flush() {
+            final Set<String> cleared;
+            final Map<String, Map<String, String>> pending;
+            synchronized (this) {
+                mScheduled = false;
+                if (mCleared.isEmpty() && mPending.isEmpty()) return;
+                cleared = new HashSet<>(mCleared);
+                pending = new HashMap<>(mPending);
+                mCleared.clear();
+                mPending.clear();
+            }
+            for (String name : cleared) {
+                mResolver.notifyChange(makeNotifyUri(sClear, name, sClearKey4Notify), null);
+            }
+            for (Map.Entry<String, Map<String, String>> entry : pending.entrySet()) {
+                final Map<String, String> keyTypes = entry.getValue();
+                if (keyTypes.size() == 1) {
+                    final Map.Entry<String, String> only = keyTypes.entrySet().iterator().next();
+                    mResolver.notifyChange(makeNotifyUri(only.getValue(), entry.getKey(), only.getKey()), null);
+                } else {
+                    mResolver.notifyChange(makeBatchNotifyUri(entry.getKey(), keyTypes.keySet()), null);
+                }
+            }
+        }
+
+        private static synchronized ScheduledExecutorService executor() {
+            if (sExecutor == null) {
+                sExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "SPrefProvider-notifier");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return sExecutor;
+        }
+    }
+
+    /**
+     * 对同一个文件的组提交（leader/follower）：第一个到达的commit调用方成为leader, 在上一次写文件结束之后
+     * （以及可选的{@link #setGroupCommitWindow(long)}窗口之后）关闭本组，并以一次空的{@link Editor#commit()}
+     * 把此前所有已apply到内存的变更一起落盘；期间到达的调用方加入本组，只等待本组的结果。
+     * <p>
+     * 空的commit在各版本的系统实现中都会等待之前apply的写入完成，或者在内存比磁盘新时自行写入，因此本组所有成员的变更都已持久化。
+     */
+    private static class GroupCommit {
+        private final SharedPreferences mSPref;
+        private final Object mWriteLock = new Object();
+        /**正在接收成员的组，由this保护**/
+        private Group mOpen;
+
+        GroupCommit(SharedPreferences spref) {
+            mSPref = spref;
+        }
+
+        boolean awaitDurable() {
+            final Group group;
+            final boolean leader;
+            synchronized (this) {
+                if (mOpen == null) {
+                    mOpen = new Group();
+                    leader = true;
+                } else {
+                    leader = false;
+                }
+                group = mOpen;
+            }
+            if (!leader) return group.await();
+            boolean success = false;
+            try {
+                synchronized (mWriteLock) {
+                    final long window = sGroupCommitWindowMillis;
+                    if (window > 0) {
+                        try {
+                            Thread.sleep(window);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    synchronized (this) {
+                        mOpen = null;
+                    }
+                    success = mSPref.edit().commit();
+                }
+            } finally {
+                group.finish(success);
+            }
+            return success;
+        }
+
+        private static class Group {
+            private boolean mDone;
+            private boolean mSuccess;
+
+            synchronized void finish(boolean success) {
+                mSuccess = success;
+                mDone = true;
+                notifyAll();
+            }
+
+            synchronized boolean await() {
+                boolean interrupted = false;
+                while (!mDone) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+                return mSuccess;
+            }
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import hobby.wei.c.L;
+
+/**
+ * 跨进程的版本号：每个SharedPreferences文件对应一个8字节的文件，映射到内存（<code>mmap</code>）中，
+ * 所有进程看到的是同一块物理内存，读一次只是一次内存访问，不需要IPC.
+ * <p>
+ * 只有{@link SharedPreferencesProvider}所在的进程写（每次数据变化之后递增），其它进程只读。
+ * 版本号单调递增，但不保证连续。映射失败（如磁盘满）时{@link #isValid()}为false，调用方应退回到原来的方式。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+/*package*/ class VersionCounter {
+    private static final String DIR = "mpsp_versions";
+    private static final Map<String, VersionCounter> sCounters = new HashMap<>();
+
+    private final MappedByteBuffer mBuffer;
+
+    public static VersionCounter of(Context context, String name) {
+        synchronized (sCounters) {
+            VersionCounter counter = sCounters.get(name);
+            if (counter == null) {
+                counter = new VersionCounter(context.getApplicationContext(), name);
+                sCounters.put(name, counter);
+            }
+            return counter;
+        }
+    }
+
+    private VersionCounter(Context context, String name) {
+        MappedByteBuffer buffer = null;
+        final File dir = new File(context.getFilesDir(), DIR);
+        if (dir.isDirectory() || dir.mkdirs()) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(new File(dir, name), "rw");
+                // 映射在文件关闭之后依然有效。
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+            } catch (IOException e) {
+                L.e(VersionCounter.class, e);
+            } finally {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        mBuffer = buffer;
+    }
+
+    public boolean isValid() {
+        return mBuffer != null;
+    }
+
+    /**
+     * @return 当前版本号，无效时为-1.
+     */
+    public long get() {
+        return mBuffer == null ? -1 : mBuffer.getLong(0);
+    }
+
+    /**
+     * 仅由{@link SharedPreferencesProvider}在数据写入之后调用。
+     *
+     * @return 递增之后的版本号。
+     */
+    public synchronized long increment() {
+        if (mBuffer == null) return -1;
+        final long version = mBuffer.getLong(0) + 1;
+        mBuffer.putLong(0, version);
+        return version;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import android.content.ComponentCallbacks2;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import hobby.wei.c.L;
+
+/**
+ * 全局的缓存内存预算。
+ * <p>
+ * 各个缓存各自设定容量，图片缓存和数据缓存同时涨满时就可能OOM. 向本类注册的缓存按权重瓜分一个总的字节预算
+ * （由{@link hobby.wei.c.framework.AbsApp}根据{@link android.app.ActivityManager#getMemoryClass()}设定），
+ * 缓存的增减会重新分配；收到{@link ComponentCallbacks2#onTrimMemory}/{@link ComponentCallbacks2#onLowMemory}
+ * 时按内存紧张程度统一收缩。
+ * <p>
+ * 只持有缓存的弱引用，不需要注销。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class CacheBudget {
+    /**
+     * 可被统一调整容量的缓存，{@link LruCache}、{@link ConcurrentLruCache}、{@link IntLruCache}、
+     * {@link LongLruCache}都已实现。
+     */
+    public interface Resizable {
+        void resize(int maxSize);
+
+        void trimToSize(int maxSize);
+
+        int maxSize();
+    }
+
+    private static final List<Entry> sEntries = new ArrayList<>();
+    private static long sBudgetBytes;
+
+    /**
+     * 设定总预算并重新分配。
+     *
+     * @param bytes 小于等于0表示不限制，各缓存恢复注册时的容量。
+     */
+    public static void setBudget(long bytes) {
+        synchronized (sEntries) {
+            sBudgetBytes = Math.max(0, bytes);
+        }
+        redistribute();
+    }
+
+    public static long getBudget() {
+        synchronized (sEntries) {
+            return sBudgetBytes;
+        }
+    }
+
+    /**
+     * 注册一个缓存。注册时的{@link Resizable#maxSize()}作为其容量上限，分到的预算再多也不会超过。
+     *
+     * @param weight      权重，按权重比例分配预算。
+     * @param bytesPerUnit 缓存的一个size单位大约占多少字节：按字节计算size的缓存（如图片缓存）为1，
+     *                     按条数计算的则为每条数据的估计大小。
+     */
+    public static void register(Resizable cache, int weight, int bytesPerUnit) {
+        if (weight <= 0) throw new IllegalArgumentException("weight <= 0");
+        if (bytesPerUnit <= 0) throw new IllegalArgumentException("bytesPerUnit <= 0");
+        synchronized (sEntries) {
+            for (Entry entry : sEntries) {
+                if (entry.cache.get() == cache) throw new IllegalStateException("重复注册: " + cache);
+            }
+            sEntries.add(new Entry(cache, weight, bytesPerUnit, cache.maxSize()));
+        }
+        redistribute();
+    }
+
+    /**
+     * 按内存紧张程度收缩缓存内容（不改变容量，之后仍可重新填满）。
+     *
+     * @param level 见{@link ComponentCallbacks2}中的TRIM_MEMORY_*常量。
+     */
+    public static void onTrimMemory(int level) {
+        final int percent;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            // 进程在后台LRU列表的末尾，随时会被杀掉，缓存留着没有意义。
+            percent = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            percent = 25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            percent = 50;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            percent = 25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            percent = 50;
+        } else {
+            percent = 75;
+        }
+        L.i(CacheBudget.class, "onTrimMemory level: %s, trim to %s%%.", level, percent);
+        trimAll(percent);
+    }
+
+    public static void onLowMemory() {
+        L.w(CacheBudget.class, "onLowMemory, evict all.");
+        trimAll(0);
+    }
+
+    private static void trimAll(int percent) {
+        for (Resizable cache : alive()) {
+            cache.trimToSize(percent == 0 ? -1 : (int) ((long) cache.maxSize() * percent / 100));
+        }
+    }
+
+    private static void redistribute() {
+        final List<Resizable> caches = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        synchronized (sEntries) {
+            int totalWeight = 0;
+            for (Iterator<Entry> it = sEntries.iterator(); it.hasNext(); ) {
+                final Entry entry = it.next();
+                if (entry.cache.get() == null) it.remove();
+                else totalWeight += entry.weight;
+            }
+            for (Entry entry : sEntries) {
+                final Resizable cache = entry.cache.get();
+                if (cache == null) continue;
+                int maxSize = entry.cap;
+                if (sBudgetBytes > 0) {
+                    final long share = sBudgetBytes * entry.weight / totalWeight / entry.bytesPerUnit;
+                    maxSize = (int) Math.max(1, Math.min(share, entry.cap));
+                }
+                caches.add(cache);
+                sizes.add(maxSize);
+            }
+        }
+        // resize()会回调entryRemoved()，不在锁内进行。
+        for (int i = 0; i < caches.size(); i++) {
+            caches.get(i).resize(sizes.get(i));
+        }
+    }
+
+    private static List<Resizable> alive() {
+        final List<Resizable> caches = new ArrayList<>();
+        synchronized (sEntries) {
+            for (Iterator<Entry> it = sEntries.iterator(); it.hasNext(); ) {
+                final Resizable cache = it.next().cache.get();
+                if (cache == null) it.remove();
+                else caches.add(cache);
+            }
+        }
+        return caches;
+    }
+
+    private static class Entry {
+        final WeakReference<Resizable> cache;
+        final int weight;
+        final int bytesPerUnit;
+        final int cap;
+
+        Entry(Resizable cache, int weight, int bytesPerUnit, int cap) {
+            this.cache = new WeakReference<>(cache);
+            this.weight = weight;
+            this.bytesPerUnit = bytesPerUnit;
+            this.cap = cap;
+        }
+    }
+}
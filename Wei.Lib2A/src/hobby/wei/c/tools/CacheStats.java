@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import hobby.wei.c.L;
+
+/**
+ * 缓存统计：命中、加载（含耗时分布）、淘汰原因。
+ * <p>
+ * 所有计数都不加锁：计数器按线程分散到多个槽位（{@link StripedCounters}），
+ * 读取时求和，因此{@link #snapshot()}很廉价，但各项之间不保证是同一时刻的值。
+ * 加载耗时记入对数分桶的直方图（{@link LatencyHistogram}，相对误差不超过1/{@link #SUB_BUCKETS}）。
+ * <p>
+ * 用法：{@link ICache.Impl#recordStats(String)}，然后{@link #startReporting}定期输出，或随时{@link #snapshot()}.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class CacheStats {
+    /**
+     * 淘汰原因。
+     */
+    public enum RemovalCause {
+        /** 超出容量被淘汰。 */
+        SIZE,
+        /** 过期。 */
+        EXPIRED,
+        /** 被主动移除，如{@link ICache#dirty}、{@link ICache#clear}. */
+        EXPLICIT,
+        /** 被新值替换。 */
+        REPLACED,
+        /** 软引用的值被GC回收，见{@link LruCache.Retention#SOFT}. */
+        COLLECTED
+    }
+
+    public interface Reporter {
+        /**
+         * 在后台线程回调。
+         */
+        void report(Snapshot snapshot);
+    }
+
+    /** 默认的Reporter, 输出到{@link L}. */
+    public static final Reporter LOG_REPORTER = new Reporter() {
+        @Override
+        public void report(Snapshot snapshot) {
+            L.i(CacheStats.class, "%s", snapshot);
+        }
+    };
+
+    /** 见{@link LatencyHistogram#SUB_BUCKETS}. */
+    public static final int SUB_BUCKETS = LatencyHistogram.SUB_BUCKETS;
+
+    private static final int HITS = 0, MISSES = 1, LOAD_SUCCESS = 2, LOAD_FAILURE = 3, LOAD_NANOS = 4,
+            EVICTION_BASE = 5, COUNTERS = EVICTION_BASE + RemovalCause.values().length;
+
+    private static final List<WeakReference<CacheStats>> sInstances = new ArrayList<>();
+    private static ScheduledExecutorService sReporterExecutor;
+    private static ScheduledFuture<?> sReporting;
+
+    public final String name;
+    private final StripedCounters mCounters = new StripedCounters(COUNTERS);
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+
+    public CacheStats(String name) {
+        this.name = name;
+        synchronized (sInstances) {
+            sInstances.add(new WeakReference<>(this));
+        }
+    }
+
+    public void recordHit() {
+        mCounters.add(HITS, 1);
+    }
+
+    public void recordMiss() {
+        mCounters.add(MISSES, 1);
+    }
+
+    public void recordLoad(boolean success, long nanos) {
+        mCounters.add(success ? LOAD_SUCCESS : LOAD_FAILURE, 1);
+        mCounters.add(LOAD_NANOS, nanos);
+        mLatency.record(nanos);
+    }
+
+    public void recordRemoval(RemovalCause cause) {
+        mCounters.add(EVICTION_BASE + cause.ordinal(), 1);
+    }
+
+    public Snapshot snapshot() {
+        final long[] counters = mCounters.sum();
+        final long[] latency = mLatency.snapshot();
+        final long[] removals = new long[RemovalCause.values().length];
+        System.arraycopy(counters, EVICTION_BASE, removals, 0, removals.length);
+        return new Snapshot(name, counters[HITS], counters[MISSES], counters[LOAD_SUCCESS], counters[LOAD_FAILURE],
+                counters[LOAD_NANOS], removals, latency);
+    }
+
+    /**
+     * 定期对所有存活的{@link CacheStats}调用reporter. 再次调用会替换之前的设置。
+     *
+     * @param reporter 为null则使用{@link #LOG_REPORTER}.
+     */
+    public static void startReporting(long period, TimeUnit unit, final Reporter reporter) {
+        synchronized (sInstances) {
+            stopReporting();
+            if (sReporterExecutor == null) {
+                sReporterExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "CacheStats-reporter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            sReporting = sReporterExecutor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    reportAll(reporter != null ? reporter : LOG_REPORTER);
+                }
+            }, period, period, unit);
+        }
+    }
+
+    public static void stopReporting() {
+        synchronized (sInstances) {
+            if (sReporting != null) {
+                sReporting.cancel(false);
+                sReporting = null;
+            }
+        }
+    }
+
+    public static void reportAll(Reporter reporter) {
+        final List<CacheStats> alive = new ArrayList<>();
+        synchronized (sInstances) {
+            for (Iterator<WeakReference<CacheStats>> it = sInstances.iterator(); it.hasNext(); ) {
+                final CacheStats stats = it.next().get();
+                if (stats == null) it.remove();
+                else alive.add(stats);
+            }
+        }
+        for (CacheStats stats : alive) {
+            try {
+                reporter.report(stats.snapshot());
+            } catch (RuntimeException e) {
+                L.e(CacheStats.class, e);
+            }
+        }
+    }
+
+    /**
+     * 某一时刻的统计值，不可变。
+     */
+    public static class Snapshot {
+        public final String name;
+        public final long hitCount, missCount;
+        public final long loadSuccessCount, loadFailureCount;
+        public final long totalLoadNanos;
+        private final long[] removals;
+        private final long[] latency;
+
+        Snapshot(String name, long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+                 long totalLoadNanos, long[] removals, long[] latency) {
+            this.name = name;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadSuccessCount = loadSuccessCount;
+            this.loadFailureCount = loadFailureCount;
+            this.totalLoadNanos = totalLoadNanos;
+            this.removals = removals;
+            this.latency = latency;
+        }
+
+        public double hitRate() {
+            final long requests = hitCount + missCount;
+            return requests == 0 ? 1 : (double) hitCount / requests;
+        }
+
+        public long loadCount() {
+            return loadSuccessCount + loadFailureCount;
+        }
+
+        public long removalCount(RemovalCause cause) {
+            return removals[cause.ordinal()];
+        }
+
+        public double averageLoadMillis() {
+            final long loads = loadCount();
+            return loads == 0 ? 0 : totalLoadNanos / 1e6 / loads;
+        }
+
+        /**
+         * @param percentile 如50、99、99.9.
+         * @return 加载耗时的百分位数（毫秒），误差见{@link CacheStats}. 没有加载过则为0.
+         */
+        public double loadMillisAt(double percentile) {
+            return LatencyHistogram.millisAt(latency, percentile);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "CacheStats[%s: hits=%d, misses=%d, hitRate=%.1f%%, loads=%d(failed %d), "
+                            + "load avg=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms, removals size=%d expired=%d explicit=%d replaced=%d collected=%d]",
+                    name, hitCount, missCount, hitRate() * 100, loadCount(), loadFailureCount,
+                    averageLoadMillis(), loadMillisAt(50), loadMillisAt(90), loadMillisAt(99),
+                    removalCount(RemovalCause.SIZE), removalCount(RemovalCause.EXPIRED),
+                    removalCount(RemovalCause.EXPLICIT), removalCount(RemovalCause.REPLACED),
+                    removalCount(RemovalCause.COLLECTED));
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 与{@link LruCache}具有相同契约（{@link #sizeOf}/{@link #entryRemoved}/{@link #create}）的并发版本。
+ * <p>
+ * {@link LruCache}的每一次{@link LruCache#get get()}都要在全局锁内调整{@link LinkedHashMap}的访问顺序，
+ * 多线程同时读时会产生严重的锁竞争。本类的做法是：
+ * <ul>
+ * <li>数据存放在{@link ConcurrentHashMap}里，命中时不加锁；</li>
+ * <li>命中的访问记录先写入一个有损的环形缓冲区，积累到一定数量后由某个线程<code>tryLock()</code>批量回放到LRU链表；</li>
+ * <li>写操作（put/remove/trimToSize）在淘汰锁内进行，并顺便回放缓冲区。</li>
+ * </ul>
+ * 因此访问顺序是近似的：缓冲区满时会丢弃部分访问记录，但不会影响数据的正确性及size的统计。
+ * <p>
+ * 本类不允许null作为key或value.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class ConcurrentLruCache<K, V> implements CacheBudget.Resizable {
+    /** 必须是2的n次方。 */
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    /** 积累到这么多条访问记录就尝试回放。 */
+    private static final int READ_DRAIN_THRESHOLD = 32;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicReferenceArray<Node<K, V>> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicInteger readBufferWriteCount = new AtomicInteger();
+    private final AtomicInteger readBufferPending = new AtomicInteger();
+
+    /**
+     * LRU链表的头（最久未访问）和尾（最近访问），由{@link #evictionLock}保护。
+     */
+    private Node<K, V> head, tail;
+
+    /**
+     * Size of this cache in units. Not necessarily the number of elements.
+     * 由{@link #evictionLock}保护。
+     */
+    private int size;
+    private volatile int maxSize;
+
+    private final AtomicInteger putCount = new AtomicInteger();
+    private final AtomicInteger createCount = new AtomicInteger();
+    private final AtomicInteger evictionCount = new AtomicInteger();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * @param maxSize 同{@link LruCache#LruCache(int)}.
+     */
+    public ConcurrentLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<>(16, 0.75f, 4);
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 同{@link LruCache#get(Object)}，但命中时不加锁。
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Node<K, V> node = map.get(key);
+        if (node != null) {
+            final V value = node.value;
+            hitCount.incrementAndGet();
+            recordRead(node);
+            return value;
+        }
+        missCount.incrementAndGet();
+
+        /*
+         * 同LruCache: create()可能很耗时，期间map可能已经被其他线程改变。
+         * 如果有冲突的值被放入，则保留那个值并释放刚刚创建的值。
+         */
+        final V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        V mapValue = null;
+        evictionLock.lock();
+        try {
+            createCount.incrementAndGet();
+            final Node<K, V> existing = map.get(key);
+            if (existing != null) {
+                mapValue = existing.value;
+            } else {
+                final Node<K, V> created = new Node<>(key, createdValue, safeSizeOf(key, createdValue));
+                map.put(key, created);
+                linkLast(created);
+                size += created.size;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(maxSize);
+            return createdValue;
+        }
+    }
+
+    /**
+     * 同{@link LruCache#put(Object, Object)}.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        V previous = null;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            putCount.incrementAndGet();
+            final int valueSize = safeSizeOf(key, value);
+            final Node<K, V> node = map.get(key);
+            if (node != null) {
+                previous = node.value;
+                size += valueSize - node.size;
+                node.value = value;
+                node.size = valueSize;
+                moveToLast(node);
+            } else {
+                final Node<K, V> created = new Node<>(key, value, valueSize);
+                map.put(key, created);
+                linkLast(created);
+                size += valueSize;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * 同{@link LruCache#trimToSize(int)}.
+     */
+    public void trimToSize(int maxSize) {
+        while (true) {
+            K key;
+            V value;
+            evictionLock.lock();
+            try {
+                drainReadBuffer();
+                if (size < 0 || (map.isEmpty() && size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+
+                if (size <= maxSize) {
+                    break;
+                }
+
+                final Node<K, V> toEvict = head;
+                if (toEvict == null) {
+                    break;
+                }
+
+                key = toEvict.key;
+                value = toEvict.value;
+                map.remove(key, toEvict);
+                unlink(toEvict);
+                size -= toEvict.size;
+                evictionCount.incrementAndGet();
+            } finally {
+                evictionLock.unlock();
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V previous = null;
+        evictionLock.lock();
+        try {
+            final Node<K, V> node = map.remove(key);
+            if (node != null) {
+                previous = node.value;
+                unlink(node);
+                size -= node.size;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+
+        return previous;
+    }
+
+    /**
+     * 同{@link LruCache#entryRemoved(boolean, Object, Object, Object)}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * 同{@link LruCache#create(Object)}.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * 同{@link LruCache#sizeOf(Object, Object)}.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    public final int size() {
+        evictionLock.lock();
+        try {
+            return size;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    public final int hitCount() {
+        return hitCount.get();
+    }
+
+    public final int missCount() {
+        return missCount.get();
+    }
+
+    public final int createCount() {
+        return createCount.get();
+    }
+
+    public final int putCount() {
+        return putCount.get();
+    }
+
+    public final int evictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 不加锁、不改变访问顺序，也不计入命中统计。
+     */
+    public final boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * 不复制的只读key视图，弱一致性：遍历时不需要加锁，不会抛出{@link java.util.ConcurrentModificationException}，
+     * 可能反映也可能不反映遍历开始之后的修改。无序。
+     */
+    public final Set<K> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public final Map<K, V> snapshot() {
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            final Map<K, V> copy = new LinkedHashMap<>();
+            for (Node<K, V> node = head; node != null; node = node.next) {
+                copy.put(node.key, node.value);
+            }
+            return copy;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public final String toString() {
+        final int hits = hitCount.get(), misses = missCount.get();
+        int accesses = hits + misses;
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("ConcurrentLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hits, misses, hitPercent);
+    }
+
+    private void recordRead(Node<K, V> node) {
+        // 有损写入：槽位被覆盖即表示丢弃了一次较早的访问记录，只影响LRU的精确度。
+        final int index = readBufferWriteCount.getAndIncrement() & READ_BUFFER_MASK;
+        readBuffer.lazySet(index, node);
+        if (readBufferPending.incrementAndGet() >= READ_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 必须持有{@link #evictionLock}.
+     */
+    private void drainReadBuffer() {
+        if (readBufferPending.get() == 0) return;
+        readBufferPending.set(0);
+        Node<K, V> node;
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            node = readBuffer.getAndSet(i, null);
+            // 已被移除的节点不再回放。
+            if (node != null && node.linked) moveToLast(node);
+        }
+    }
+
+    private void linkLast(Node<K, V> node) {
+        node.prev = tail;
+        node.next = null;
+        if (tail == null) head = node;
+        else tail.next = node;
+        tail = node;
+        node.linked = true;
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (!node.linked) return;
+        final Node<K, V> prev = node.prev, next = node.next;
+        if (prev == null) head = next;
+        else prev.next = next;
+        if (next == null) tail = prev;
+        else next.prev = prev;
+        node.prev = node.next = null;
+        node.linked = false;
+    }
+
+    private void moveToLast(Node<K, V> node) {
+        if (tail == node) return;
+        unlink(node);
+        linkLast(node);
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        /** 以下字段由{@link #evictionLock}保护。 */
+        int size;
+        Node<K, V> prev, next;
+        boolean linked;
+
+        Node(K key, V value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 堆外内存池，供{@link LruCache.Retention#OFF_HEAP}存放序列化之后的数据。
+ * <p>
+ * 按2的n次方分级（最小64字节），每级的块从{@link #SLAB_SIZE}大小的direct slab上切出来，释放后回到本级的空闲队列复用，
+ * 避免频繁分配direct内存（其分配和回收都很慢，且回收依赖于GC时机）。超过一个slab大小的数据单独分配，不入池。
+ * <p>
+ * 注意：slab一旦分配就不会归还，池的占用等于历史峰值。本类是线程安全的。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+/*package*/ class DirectBufferPool {
+    public static final int SLAB_SIZE = 256 * 1024;
+    private static final int MIN_SHIFT = 6;
+    private static final int MAX_SHIFT = 18;    // SLAB_SIZE
+
+    public static final DirectBufferPool INSTANCE = new DirectBufferPool();
+
+    private final ArrayDeque<ByteBuffer>[] mFree;
+    private long mSlabBytes;
+
+    @SuppressWarnings("unchecked")
+    private DirectBufferPool() {
+        mFree = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < mFree.length; i++) {
+            mFree[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 存入数据。
+     *
+     * @return position为0、limit为data.length的buffer. 用完须{@link #release}.
+     */
+    public ByteBuffer store(byte[] data) {
+        final ByteBuffer buffer = acquire(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 读出全部数据（position到limit），不改变buffer的状态。
+     */
+    public static byte[] load(ByteBuffer buffer) {
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    public void release(ByteBuffer buffer) {
+        final int shift = shiftOf(buffer.capacity());
+        if (shift > MAX_SHIFT || buffer.capacity() != 1 << shift) return;
+        buffer.clear();
+        synchronized (this) {
+            mFree[shift - MIN_SHIFT].push(buffer);
+        }
+    }
+
+    /**
+     * @return 已分配的slab总字节数。
+     */
+    public synchronized long slabBytes() {
+        return mSlabBytes;
+    }
+
+    private ByteBuffer acquire(int length) {
+        final int shift = shiftOf(length);
+        if (shift > MAX_SHIFT) return ByteBuffer.allocateDirect(length);
+        final ByteBuffer buffer;
+        synchronized (this) {
+            final ArrayDeque<ByteBuffer> free = mFree[shift - MIN_SHIFT];
+            if (free.isEmpty()) carve(shift, free);
+            buffer = free.pop();
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    private void carve(int shift, ArrayDeque<ByteBuffer> free) {
+        final ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        mSlabBytes += SLAB_SIZE;
+        final int chunk = 1 << shift;
+        for (int offset = 0; offset < SLAB_SIZE; offset += chunk) {
+            slab.limit(offset + chunk).position(offset);
+            free.push(slab.slice());
+        }
+    }
+
+    private static int shiftOf(int length) {
+        if (length <= 1 << MIN_SHIFT) return MIN_SHIFT;
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
@@ -16,6 +16,37 @@
 
 package hobby.wei.c.tools;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import hobby.wei.c.L;
+import hobby.wei.c.data.abs.AbsJson;
+import hobby.wei.c.data.abs.IJson;
+import hobby.wei.c.exception.CacheLoadTimeoutException;
+import hobby.wei.c.file.DiskLruStore;
+import hobby.wei.c.utils.MD5Utils;
+
 /**
  * @author Wei.Chou
  * @version 1.0, 23/03/2017
@@ -33,21 +64,137 @@ public interface ICache<K, V> {
 
     void clear();
 
+    /**
+     * 批量获取。所有未命中的key在一次批量加载中解决，见{@link BatchDelegate}.
+     *
+     * @return 按参数顺序排列，加载不到的key不在其中。
+     */
+    Map<K, V> getAll(Collection<K> keys);
+
     interface Delegate<K, V> {
         V load(K key);
 
         boolean update(K key, V value);
     }
 
+    /**
+     * {@link Impl#writeBehind}模式下，后台写入失败的回调。
+     */
+    interface WriteFailure<K, V> {
+        /**
+         * 在后台线程回调。此时缓存里的这条数据已被{@link #dirty(K)}（除非其后又有新的更新排队），
+         * 可在这里重试{@link #update(K, V)}或提示用户。
+         *
+         * @param e {@link Delegate#update}返回false时为null.
+         */
+        void onWriteFailed(K key, V value, RuntimeException e);
+    }
+
+    /**
+     * 支持批量加载的{@link Delegate}. 不实现本接口时，{@link #getAll(Collection)}会并行地逐个调用{@link #load(K)}.
+     */
+    interface BatchDelegate<K, V> extends Delegate<K, V> {
+        /**
+         * @param keys 都是未命中的key，不会重复。
+         * @return 加载不到的key可以不放入结果中。
+         */
+        Map<K, V> loadAll(Collection<K> keys);
+    }
+
+    /**
+     * 磁盘缓存的序列化方式。
+     */
+    interface Codec<V> {
+        Codec<byte[]> BYTES = new Codec<byte[]>() {
+            @Override
+            public byte[] encode(byte[] value) {
+                return value;
+            }
+
+            @Override
+            public byte[] decode(byte[] data) {
+                return data;
+            }
+        };
+
+        byte[] encode(V value);
+
+        /**
+         * @throws RuntimeException 数据无法解析（如格式已变更），该条磁盘缓存会被删除。
+         */
+        V decode(byte[] data);
+
+        /**
+         * 以Json格式序列化，{@link IJson}使用其自身的{@link IJson#toJson()}，
+         * 其他对象使用{@link AbsJson#toJsonWithAllFields(Object)}.
+         */
+        class Json<V> implements Codec<V> {
+            private static final Charset UTF8 = Charset.forName("UTF-8");
+            private final Class<V> mClass;
+
+            public Json(Class<V> clazz) {
+                mClass = clazz;
+            }
+
+            @Override
+            public byte[] encode(V value) {
+                final String json = value instanceof IJson ? ((IJson<?>) value).toJson() : AbsJson.toJsonWithAllFields(value);
+                return json.getBytes(UTF8);
+            }
+
+            @Override
+            public V decode(byte[] data) {
+                return AbsJson.fromJsonWithAllFields(new String(data, UTF8), mClass);
+            }
+        }
+    }
+
     class Impl<K, V> implements ICache<K, V> {
         protected final LruCache<K, V> mLruCache;
         protected final Delegate<K, V> mDelegate;
 
+        /*以下为过期及刷新的配置，为0表示不启用。应在构造之后、使用之前设置。*/
+        private long mExpireAfterWriteMs;
+        private long mExpireAfterAccessMs;
+        private long mRefreshAfterWriteMs;
+        private Executor mRefreshExecutor;
+        private TimerWheel<K> mTimerWheel;
+        private ConcurrentHashMap<K, Stamp> mStamps;
+        /**写入值及其时间戳、按时间戳删除过期值时加锁，见{@link #removeExpired(K, Stamp)}**/
+        private final Object mStampLock = new Object();
+        /**读路径下次推进时间轮的时间，见{@link #lookup(K)}**/
+        private final AtomicLong mNextReadTick = new AtomicLong();
+        private Set<K> mRefreshing;
+        private DiskLruStore mDiskStore;
+        /**磁盘数据的头：magic(int) + 写入时间(long, 墙上时间)**/
+        private static final int DISK_MAGIC = 0x1CAC4E01, DISK_HEADER = 4 + 8;
+        private Codec<V> mCodec;
+        private WriteBehind<K, V> mWriteBehind;
+        private volatile CacheStats mStats;
+
         /**
          * @param cacheSize 单位：条（一个key-value对为一条）。
          */
         public Impl(int cacheSize, Delegate<K, V> delegate) {
-            mLruCache = new LruCache<K, V>(cacheSize) {
+            this(cacheSize, delegate, false);
+        }
+
+        /**
+         * @param cacheSize 单位：条（一个key-value对为一条）。
+         * @param tinyLfu   是否使用{@link TinyLfuPolicy W-TinyLFU}淘汰策略代替纯LRU。
+         *                  对访问倾斜明显或经常有大范围扫描的场景，同样的cacheSize下命中率更高。
+         */
+        public Impl(int cacheSize, Delegate<K, V> delegate, boolean tinyLfu) {
+            this(cacheSize, delegate, tinyLfu, LruCache.Retention.STRONG, null);
+        }
+
+        /**
+         * @param retention 值的保存方式，见{@link LruCache.Retention}. 较大的数据可用SOFT（内存紧张时让GC回收）
+         *                  或OFF_HEAP（不占Java堆）.
+         * @param codec     OFF_HEAP时用于序列化，其他模式可为null.
+         */
+        public Impl(int cacheSize, Delegate<K, V> delegate, boolean tinyLfu, LruCache.Retention retention, Codec<V> codec) {
+            mLruCache = new LruCache<K, V>(cacheSize, tinyLfu ? new TinyLfuPolicy<K>() : null, retention, codec) {
                 @Override
                 protected int sizeOf(K key, V value) {
             /*
@@ -59,13 +206,173 @@ public interface ICache<K, V> {
              */
                     return 1;
                 }
+
+                @Override
+                protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+                    // newValue不为null表示被put替换，时间戳由写入方更新。
+                    final Stamp stamp = newValue == null && mStamps != null ? mStamps.remove(key) : null;
+                    if (stamp != null) mTimerWheel.cancel(key);
+                    if (mStats != null) {
+                        mStats.recordRemoval(evicted ? CacheStats.RemovalCause.SIZE
+                                : newValue != null ? CacheStats.RemovalCause.REPLACED
+                                : stamp != null && deadlineOf(stamp) <= now() ? CacheStats.RemovalCause.EXPIRED
+                                : CacheStats.RemovalCause.EXPLICIT);
+                    }
+                }
+
+                @Override
+                protected boolean needsOldValue() {
+                    return false;
+                }
+
+                @Override
+                protected void entryCollected(K key) {
+                    if (mStamps != null && mStamps.remove(key) != null) mTimerWheel.cancel(key);
+                    if (mStats != null) mStats.recordRemoval(CacheStats.RemovalCause.COLLECTED);
+                }
             };
             mDelegate = delegate;
         }
 
+        /**
+         * 写入（加载或更新）之后经过指定时间即过期，过期之后的{@link #get(K)}会重新加载。
+         */
+        public <T extends Impl<K, V>> T expireAfterWrite(long duration, TimeUnit unit) {
+            mExpireAfterWriteMs = unit.toMillis(duration);
+            ensureTimer();
+            return (T) this;
+        }
+
+        /**
+         * 最后一次访问（命中或写入）之后经过指定时间即过期。
+         */
+        public <T extends Impl<K, V>> T expireAfterAccess(long duration, TimeUnit unit) {
+            mExpireAfterAccessMs = unit.toMillis(duration);
+            ensureTimer();
+            return (T) this;
+        }
+
+        /**
+         * 写入之后经过指定时间，下一次{@link #get(K)}仍然返回旧值，同时在后台异步重新加载。
+         * 通常与{@link #expireAfterWrite}一起使用，且时间应比后者短。
+         *
+         * @param executor 执行异步加载的线程池，为null则使用默认的。
+         */
+        public <T extends Impl<K, V>> T refreshAfterWrite(long duration, TimeUnit unit, Executor executor) {
+            mRefreshAfterWriteMs = unit.toMillis(duration);
+            mRefreshExecutor = executor != null ? executor : DefaultExecutor.INSTANCE;
+            mRefreshing = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+            ensureTimer();
+            return (T) this;
+        }
+
+        /**
+         * 在内存缓存之下增加一层磁盘缓存：内存未命中时先读磁盘，磁盘也没有才调用{@link Delegate#load(K)}，
+         * 加载或更新的结果同时写入两层。这样进程重启之后不必全部重新加载。
+         * <p>
+         * 每条磁盘数据带有写入时的时间（墙上时间，进程重启之后依然有效），读出时按这个时间判断{@link #expireAfterWrite}
+         * 和{@link #expireAfterAccess}是否已过期（磁盘上不记录访问时间，因此后者按写入时间算，可能提前过期），
+         * 过期的删除并视为未命中。
+         * <p>
+         * 磁盘上以key的{@link Object#toString()}的MD5作为文件名，因此key的toString()必须稳定且能唯一地区分不同的key
+         * （如String、数值类型，或按字段实现了toString()的数据类），默认的<code>Object.toString()</code>不行。
+         *
+         * @param store 通常在{@link hobby.wei.c.file.FStoreLoc#getTempCacheDir}下的某个子目录打开，
+         *              不同的缓存不可共用同一个目录。
+         * @param codec 序列化方式，如{@link Codec.Json}或{@link Codec#BYTES}.
+         */
+        public <T extends Impl<K, V>> T diskTier(DiskLruStore store, Codec<V> codec) {
+            mDiskStore = store;
+            mCodec = codec;
+            return (T) this;
+        }
+
+        /**
+         * 开启统计：内存缓存的命中率、{@link Delegate#load(K)}的次数及耗时分布、各种原因的淘汰次数。
+         * 可通过{@link #stats()}读取，或{@link CacheStats#startReporting}定期输出。
+         *
+         * @param name 用于在报告中区分各个缓存。
+         */
+        public <T extends Impl<K, V>> T recordStats(String name) {
+            mStats = new CacheStats(name);
+            return (T) this;
+        }
+
+        /**
+         * @return 未调用{@link #recordStats(String)}则为null.
+         */
+        public CacheStats stats() {
+            return mStats;
+        }
+
+        /**
+         * 加入{@link CacheBudget 全局缓存预算}：构造时的cacheSize作为容量上限，实际容量按权重从总预算中分配，
+         * 并在内存紧张时统一收缩。
+         *
+         * @param bytesPerEntry 每条数据的估计大小（字节）。
+         */
+        public <T extends Impl<K, V>> T budget(int weight, int bytesPerEntry) {
+            CacheBudget.register(mLruCache, weight, bytesPerEntry);
+            return (T) this;
+        }
+
+        /**
+         * 写回模式：{@link #update(K, V)}立即更新缓存并返回true，对{@link Delegate#update}的调用则在后台进行。
+         * 同一个key的多次更新只写入最后一次；队列积累到maxBatch条，或自第一条入队起经过delay时间，即批量写入。
+         * 适用于高频变动的设置项等，避免在UI线程上同步写入。
+         * <p>
+         * 尚未写入的key，{@link #refresh(K)}直接返回排队中的值而不会读到旧数据。
+         * {@link hobby.wei.c.framework.AbsApp}退出时会尽量写完队列（有等待时限），但进程被直接kill时排队中的数据会丢失，
+         * 重要的数据应在适当的时机主动调用{@link #flush()}或{@link #flushAll()}.
+         *
+         * @param failure 写入失败的回调，可为null.
+         */
+        public <T extends Impl<K, V>> T writeBehind(int maxBatch, long delay, TimeUnit unit, final WriteFailure<K, V> failure) {
+            mWriteBehind = new WriteBehind<K, V>(mDelegate, maxBatch, unit.toMillis(delay)) {
+                @Override
+                protected void onWriteFailed(K key, V value, RuntimeException e) {
+                    // 源数据未更新，缓存里的值已不可信；若有更新的值在排队，则以那个为准。
+                    if (!isPending(key)) dirty(key);
+                    if (failure != null) failure.onWriteFailed(key, value, e);
+                    else L.e(ICache.class, e != null ? e : new IllegalStateException("写入失败, key: " + key));
+                }
+            };
+            return (T) this;
+        }
+
+        /**
+         * 在当前线程写完{@link #writeBehind}队列中的所有数据。未启用写回模式时什么也不做。
+         */
+        public void flush() {
+            if (mWriteBehind != null) mWriteBehind.flush();
+        }
+
+        /**
+         * 写完所有启用了{@link #writeBehind}的缓存的队列。会阻塞当前线程。
+         */
+        public static void flushAll() {
+            WriteBehind.flushAll();
+        }
+
+        /**
+         * 同{@link #flushAll()}, 但在后台写线程上进行，当前线程最多等待指定时间。可在主线程调用。
+         *
+         * @return 是否已全部写完。超时返回false, 写入仍在后台继续。
+         */
+        public static boolean flushAll(long timeout, TimeUnit unit) {
+            return WriteBehind.flushAll(timeout, unit);
+        }
+
+        private void ensureTimer() {
+            if (mTimerWheel == null) {
+                mTimerWheel = new TimerWheel<>(now());
+                mStamps = new ConcurrentHashMap<>();
+            }
+        }
+
         @Override
         public V get(K key) {
-            V value = mLruCache.get(key);
+            V value = getLocal(key);
             if (value == null) {
                 value = refresh(key);
             }
@@ -74,26 +381,37 @@ public interface ICache<K, V> {
 
         @Override
         public V getOnly(K key) {
-            return mLruCache.get(key);
+            return getCached(key);
         }
 
         @Override
         public V refresh(K key) {
-            final V value = mDelegate.load(key);
-            if (value != null) mLruCache.put(key, value);
+            final V value = loadFresh(key);
+            if (value != null) {
+                putCached(key, value);
+                putDisk(key, value);
+            }
             return value;
         }
 
         @Override
         public void dirty(K key) {
-            mLruCache.remove(key);
+            mLruCache.delete(key);
+            if (mDiskStore != null) mDiskStore.remove(diskKey(key));
         }
 
         @Override
         public boolean update(K key, V value) {
+            if (mWriteBehind != null) {
+                putCached(key, value);
+                putDisk(key, value);
+                mWriteBehind.enqueue(key, value);
+                return true;
+            }
             dirty(key);
             if (mDelegate.update(key, value)) {
-                mLruCache.put(key, value);
+                putCached(key, value);
+                putDisk(key, value);
                 return true;
             }
             return false;
@@ -102,26 +420,510 @@ public interface ICache<K, V> {
         @Override
         public void clear() {
             mLruCache.evictAll();
+            if (mDiskStore != null) mDiskStore.clear();
+        }
+
+        @Override
+        public Map<K, V> getAll(Collection<K> keys) {
+            final Map<K, V> found = new HashMap<>();
+            final Set<K> misses = new LinkedHashSet<>();
+            for (K key : keys) {
+                if (found.containsKey(key) || misses.contains(key)) continue;
+                final V value = getLocal(key);
+                if (value != null) found.put(key, value);
+                else misses.add(key);
+            }
+            if (!misses.isEmpty()) loadMisses(misses, found);
+            final Map<K, V> result = new LinkedHashMap<>();
+            for (K key : keys) {
+                final V value = found.get(key);
+                if (value != null) result.put(key, value);
+            }
+            return result;
         }
 
         /**
-         * 仅在第一次{@link #get(K)}的时候，使用线程同步。等同于单例实现。
+         * 加载未命中的key并放入缓存，结果放入{@code into}. 加载中途抛出异常时，已加载到的值照样放入缓存和{@code into}，然后再抛出。
          */
-        public static class SyncGet<K, V> extends Impl<K, V> {
-            public SyncGet(int cacheSize, Delegate<K, V> delegate) {
-                super(cacheSize, delegate);
+        protected void loadMisses(Set<K> misses, Map<K, V> into) {
+            final Map<K, V> loaded = new ConcurrentHashMap<>();
+            try {
+                loadAll(misses, loaded);
+            } finally {
+                final Map<K, V> toCache = new LinkedHashMap<>();
+                for (K key : misses) {
+                    V value = mWriteBehind != null ? mWriteBehind.pending(key) : null;
+                    if (value == null) value = loaded.get(key);
+                    if (value != null) toCache.put(key, value);
+                }
+                putCachedAll(toCache);
+                for (Map.Entry<K, V> entry : toCache.entrySet()) {
+                    putDisk(entry.getKey(), entry.getValue());
+                }
+                into.putAll(toCache);
+            }
+        }
+
+        /**
+         * 优先使用{@link BatchDelegate#loadAll(Collection)}，否则在后台线程池中并行加载，调用线程也参与加载。
+         *
+         * @param loaded 线程安全的Map, 每加载到一个值就放进去，以便中途抛出异常时保留已加载的部分。
+         */
+        private void loadAll(Collection<K> keys, Map<K, V> loaded) {
+            if (mDelegate instanceof BatchDelegate) {
+                // 整批计为一次加载。
+                final long start = System.nanoTime();
+                boolean success = false;
+                try {
+                    final Map<K, V> values = ((BatchDelegate<K, V>) mDelegate).loadAll(keys);
+                    success = true;
+                    if (values != null) {
+                        for (Map.Entry<K, V> entry : values.entrySet()) {
+                            if (entry.getKey() != null && entry.getValue() != null) loaded.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    return;
+                } finally {
+                    if (mStats != null) mStats.recordLoad(success, System.nanoTime() - start);
+                }
+            }
+            final ConcurrentLinkedQueue<K> queue = new ConcurrentLinkedQueue<>(keys);
+            final CountDownLatch latch = new CountDownLatch(keys.size());
+            final AtomicReference<RuntimeException> error = new AtomicReference<>();
+            final Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    K key;
+                    // 任务可能排队而迟迟得不到执行，因此每个worker（包括调用线程）都是从队列里抢key，
+                    // 调用线程最后只需等待正在被其他线程加载的key，不会死等排队中的任务。
+                    while ((key = queue.poll()) != null) {
+                        try {
+                            final V value = loadFresh(key);
+                            if (value != null) loaded.put(key, value);
+                        } catch (RuntimeException e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                }
+            };
+            final int workers = Math.min(keys.size(), DefaultExecutor.PARALLELISM) - 1;
+            for (int i = 0; i < workers; i++) {
+                try {
+                    DefaultExecutor.INSTANCE.execute(worker);
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+            worker.run();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheLoadTimeoutException("等待批量加载被中断", e);
+            }
+            if (error.get() != null) throw error.get();
+        }
+
+        protected void putCachedAll(Map<K, V> values) {
+            if (values.isEmpty()) return;
+            if (mTimerWheel == null) {
+                mLruCache.putAll(values);
+                return;
+            }
+            final long now = now();
+            synchronized (mStampLock) {
+                mLruCache.putAll(values);
+                for (K key : values.keySet()) {
+                    mStamps.put(key, new Stamp(now));
+                }
+            }
+            final long deadline = deadlineOf(new Stamp(now));
+            for (K key : values.keySet()) {
+                mTimerWheel.schedule(key, deadline);
+            }
+            expireTimeouts(now);
+        }
+
+        /**
+         * 依次读内存和磁盘缓存，不调用{@link Delegate#load(K)}.
+         */
+        protected V getLocal(K key) {
+            return getLocal(key, true);
+        }
+
+        /**
+         * @param recordStats 同一次访问中的重复检查不应重复计入命中统计。
+         */
+        protected V getLocal(K key, boolean recordStats) {
+            V value = getCached(key, recordStats);
+            if (value == null && mDiskStore != null) {
+                final String diskKey = diskKey(key);
+                final byte[] data = mDiskStore.get(diskKey);
+                if (data != null) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(data);
+                    final long age = data.length >= DISK_HEADER && buffer.getInt() == DISK_MAGIC
+                            ? System.currentTimeMillis() - buffer.getLong() : -1;
+                    if (age < 0 || age >= maxAge()) {
+                        // 旧格式、时钟被回拨或已过期。
+                        mDiskStore.remove(diskKey);
+                    } else {
+                        try {
+                            value = mCodec.decode(Arrays.copyOfRange(data, DISK_HEADER, data.length));
+                        } catch (RuntimeException e) {
+                            L.w(ICache.class, e, "磁盘缓存无法解析，已删除");
+                            mDiskStore.remove(diskKey);
+                        }
+                        if (value != null) putCached(key, value, age);
+                    }
+                }
+            }
+            return value;
+        }
+
+        /**
+         * 写回模式下，排队中的值比{@link Delegate#load(K)}读到的更新。
+         */
+        private V loadFresh(K key) {
+            if (mWriteBehind != null) {
+                final V pending = mWriteBehind.pending(key);
+                if (pending != null) return pending;
+            }
+            if (mStats == null) return mDelegate.load(key);
+            final long start = System.nanoTime();
+            boolean success = false;
+            try {
+                final V value = mDelegate.load(key);
+                success = true;
+                return value;
+            } finally {
+                mStats.recordLoad(success, System.nanoTime() - start);
+            }
+        }
+
+        private void putDisk(K key, V value) {
+            if (mDiskStore == null) return;
+            final byte[] data = mCodec.encode(value);
+            mDiskStore.put(diskKey(key), ByteBuffer.allocate(DISK_HEADER + data.length)
+                    .putInt(DISK_MAGIC).putLong(System.currentTimeMillis()).put(data).array());
+        }
+
+        private static String diskKey(Object key) {
+            return MD5Utils.toMD5(key.toString()).toLowerCase(Locale.US);
+        }
+
+        /**
+         * 从内存缓存中读取，已过期的视为未命中；需要刷新的则触发异步刷新，但仍返回旧值。
+         */
+        protected V getCached(K key) {
+            return getCached(key, true);
+        }
+
+        private V getCached(K key, boolean recordStats) {
+            final V value = lookup(key);
+            if (recordStats && mStats != null) {
+                if (value != null) mStats.recordHit();
+                else mStats.recordMiss();
+            }
+            return value;
+        }
+
+        private V lookup(K key) {
+            if (mTimerWheel == null) return mLruCache.get(key);
+            final long now = now();
+            // 是否过期由下面的Stamp判断，时间轮只负责回收内存。因此读路径不必每次都进入时间轮的锁，
+            // 每个最小刻度只由一个读线程推进一次，其余的直接跳过；写路径照常推进。
+            final long tick = mNextReadTick.get();
+            if (now >= tick && mNextReadTick.compareAndSet(tick, now + TimerWheel.TICK_MS)) {
+                expireTimeouts(now);
+            }
+            final V value = mLruCache.get(key);
+            if (value == null) return null;
+            final Stamp stamp = mStamps.get(key);
+            if (stamp == null) return value;
+            if (deadlineOf(stamp) <= now) {
+                removeExpired(key, stamp);
+                return null;
+            }
+            stamp.accessTime = now;
+            if (mRefreshAfterWriteMs > 0 && now - stamp.writeTime >= mRefreshAfterWriteMs) {
+                refreshAsync(key);
+            }
+            return value;
+        }
+
+        protected void putCached(K key, V value) {
+            putCached(key, value, 0);
+        }
+
+        /**
+         * @param age 已经存在了多久（毫秒），如从磁盘读出的数据。
+         */
+        private void putCached(K key, V value, long age) {
+            if (mTimerWheel == null) {
+                mLruCache.set(key, value);
+                return;
+            }
+            final long now = now();
+            final Stamp stamp = new Stamp(now - age);
+            synchronized (mStampLock) {
+                mLruCache.set(key, value);
+                mStamps.put(key, stamp);
+            }
+            mTimerWheel.schedule(key, deadlineOf(stamp));
+            expireTimeouts(now);
+        }
+
+        /**
+         * 只有时间戳仍是已过期的那个时才删除。与写入互斥，检查之后写入的新值和新的时间戳不会被误删
+         * （删除时{@link LruCache#entryRemoved}移除的时间戳也就是这个过期的）。
+         */
+        private void removeExpired(K key, Stamp stamp) {
+            synchronized (mStampLock) {
+                if (mStamps.get(key) == stamp) mLruCache.delete(key);
+            }
+        }
+
+        private void refreshAsync(final K key) {
+            if (!mRefreshing.add(key)) return;
+            try {
+                mRefreshExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            refresh(key);
+                        } catch (RuntimeException e) {
+                            // 刷新失败则保留旧值，直到其过期。
+                            L.e(ICache.class, e);
+                        } finally {
+                            mRefreshing.remove(key);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                mRefreshing.remove(key);
+            }
+        }
+
+        /**
+         * 时间轮只负责及时回收内存，到期的key以{@link Stamp}为准再检查一遍：
+         * 访问时间的变化不会重新调度时间轮，这里发现还没有真正过期的，重新调度即可。
+         */
+        private void expireTimeouts(long now) {
+            for (K key : mTimerWheel.advance(now)) {
+                final Stamp stamp = mStamps.get(key);
+                if (stamp == null) continue;
+                final long deadline = deadlineOf(stamp);
+                if (deadline <= now) {
+                    removeExpired(key, stamp);
+                } else {
+                    mTimerWheel.schedule(key, deadline);
+                }
+            }
+        }
+
+        /**
+         * @return 写入之后最多还能存活多久（毫秒）；不过期为Long.MAX_VALUE.
+         */
+        private long maxAge() {
+            return deadlineOf(new Stamp(0));
+        }
+
+        private long deadlineOf(Stamp stamp) {
+            long deadline = Long.MAX_VALUE;
+            if (mExpireAfterWriteMs > 0) deadline = stamp.writeTime + mExpireAfterWriteMs;
+            if (mExpireAfterAccessMs > 0) deadline = Math.min(deadline, stamp.accessTime + mExpireAfterAccessMs);
+            return deadline;
+        }
+
+        private static long now() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+
+        private static class Stamp {
+            final long writeTime;
+            volatile long accessTime;
+
+            Stamp(long now) {
+                writeTime = accessTime = now;
+            }
+        }
+
+        /**
+         * 异步刷新和并行加载默认使用的线程池。
+         */
+        private static class DefaultExecutor {
+            static final int PARALLELISM = 4;
+            static final Executor INSTANCE = newExecutor();
+
+            private static Executor newExecutor() {
+                final ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "ICache-loader-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            }
+        }
+
+        /**
+         * 按key合并并发的加载：同一个key同时未命中（或同时{@link #refresh(K)}）时，只有一个线程调用
+         * {@link Delegate#load(K)}，其他线程等待并共享其结果，包括其抛出的异常；不同key的加载互不阻塞。
+         * <p>
+         * {@link #getAll(Collection)}的未命中也走同一个in-flight表：先为每个key登记，只批量加载自己抢到的key，
+         * 其余的等待正在加载它们的线程。
+         */
+        public static class SingleFlight<K, V> extends Impl<K, V> {
+            private final ConcurrentHashMap<K, Flight<V>> mFlights = new ConcurrentHashMap<>();
+            private final long mTimeoutMillis;
+
+            public SingleFlight(int cacheSize, Delegate<K, V> delegate) {
+                this(cacheSize, delegate, false, 0);
+            }
+
+            /**
+             * @param timeoutMillis 等待其他线程加载同一个key的最长时间，超时抛出{@link CacheLoadTimeoutException}。
+             *                      小于等于0表示一直等待。
+             */
+            public SingleFlight(int cacheSize, Delegate<K, V> delegate, boolean tinyLfu, long timeoutMillis) {
+                this(cacheSize, delegate, tinyLfu, timeoutMillis, LruCache.Retention.STRONG, null);
+            }
+
+            /**
+             * @see Impl#Impl(int, Delegate, boolean, LruCache.Retention, Codec)
+             */
+            public SingleFlight(int cacheSize, Delegate<K, V> delegate, boolean tinyLfu, long timeoutMillis,
+                                LruCache.Retention retention, Codec<V> codec) {
+                super(cacheSize, delegate, tinyLfu, retention, codec);
+                mTimeoutMillis = timeoutMillis;
             }
 
             @Override
             public V get(K key) {
-                V value = mLruCache.get(key);
+                V value = getCached(key);
                 if (value == null) {
-                    synchronized (this) {
-                        value = super.get(key);
-                    }
+                    value = load(key, true);
                 }
                 return value;
             }
+
+            @Override
+            public V refresh(K key) {
+                return load(key, false);
+            }
+
+            private V load(K key, boolean checkCache) {
+                final Flight<V> flight = new Flight<>();
+                final Flight<V> running = mFlights.putIfAbsent(key, flight);
+                if (running != null) {
+                    return running.await(key, mTimeoutMillis);
+                }
+                try {
+                    // 在抢到加载权之前，可能刚好有另一个加载完成并放入了缓存。
+                    V value = checkCache ? getLocal(key, false) : null;
+                    if (value == null) {
+                        value = super.refresh(key);
+                    }
+                    flight.done(value, null);
+                    return value;
+                } catch (RuntimeException | Error e) {
+                    flight.done(null, e);
+                    throw e;
+                } finally {
+                    mFlights.remove(key, flight);
+                }
+            }
+
+            @Override
+            protected void loadMisses(Set<K> misses, Map<K, V> into) {
+                final Map<K, Flight<V>> owned = new LinkedHashMap<>();
+                final Map<K, Flight<V>> joined = new LinkedHashMap<>();
+                for (K key : misses) {
+                    final Flight<V> flight = new Flight<>();
+                    final Flight<V> running = mFlights.putIfAbsent(key, flight);
+                    if (running == null) owned.put(key, flight);
+                    else joined.put(key, running);
+                }
+                final Map<K, V> loaded = new HashMap<>();
+                Throwable error = null;
+                try {
+                    // 同load(K, boolean): 在抢到加载权之前，可能刚好有另一个加载完成并放入了缓存。
+                    final Set<K> toLoad = new LinkedHashSet<>();
+                    for (K key : owned.keySet()) {
+                        final V value = getLocal(key, false);
+                        if (value != null) loaded.put(key, value);
+                        else toLoad.add(key);
+                    }
+                    if (!toLoad.isEmpty()) super.loadMisses(toLoad, loaded);
+                } catch (RuntimeException | Error e) {
+                    error = e;
+                    throw e;
+                } finally {
+                    // 部分失败时，已加载到的key照常交付，其余的key共享异常。
+                    for (Map.Entry<K, Flight<V>> entry : owned.entrySet()) {
+                        final V value = loaded.get(entry.getKey());
+                        entry.getValue().done(value, value == null ? error : null);
+                        mFlights.remove(entry.getKey(), entry.getValue());
+                    }
+                    into.putAll(loaded);
+                }
+                // 先完成自己的flight再等待别人的，两个getAll互相持有对方需要的key时不会死锁。
+                for (Map.Entry<K, Flight<V>> entry : joined.entrySet()) {
+                    final V value = entry.getValue().await(entry.getKey(), mTimeoutMillis);
+                    if (value != null) into.put(entry.getKey(), value);
+                }
+            }
+
+            private static class Flight<V> {
+                private final CountDownLatch mLatch = new CountDownLatch(1);
+                private V mValue;
+                private Throwable mError;
+
+                void done(V value, Throwable error) {
+                    mValue = value;
+                    mError = error;
+                    mLatch.countDown();
+                }
+
+                V await(Object key, long timeoutMillis) {
+                    try {
+                        if (timeoutMillis <= 0) {
+                            mLatch.await();
+                        } else if (!mLatch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                            throw new CacheLoadTimeoutException("等待加载超时(" + timeoutMillis + "ms), key: " + key);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CacheLoadTimeoutException("等待加载被中断, key: " + key, e);
+                    }
+                    if (mError instanceof RuntimeException) throw (RuntimeException) mError;
+                    if (mError instanceof Error) throw (Error) mError;
+                    return mValue;
+                }
+            }
+        }
+
+        /**
+         * 仅在第一次{@link #get(K)}的时候，使用线程同步。等同于单例实现。
+         * <p>
+         * 同步的粒度是key: 不同key的加载互不阻塞，详见{@link SingleFlight}.
+         */
+        public static class SyncGet<K, V> extends SingleFlight<K, V> {
+            public SyncGet(int cacheSize, Delegate<K, V> delegate) {
+                super(cacheSize, delegate);
+            }
+
+            public SyncGet(int cacheSize, Delegate<K, V> delegate, boolean tinyLfu) {
+                super(cacheSize, delegate, tinyLfu, 0);
+            }
         }
 
         public static class Sync<K, V> extends Impl<K, V> {
@@ -129,6 +931,10 @@ public interface ICache<K, V> {
                 super(cacheSize, delegate);
             }
 
+            public Sync(int cacheSize, Delegate<K, V> delegate, boolean tinyLfu) {
+                super(cacheSize, delegate, tinyLfu);
+            }
+
             @Override
             public synchronized V get(K key) {
                 return super.get(key);
@@ -158,6 +964,11 @@ public interface ICache<K, V> {
             public synchronized void clear() {
                 super.clear();
             }
+
+            @Override
+            public synchronized Map<K, V> getAll(Collection<K> keys) {
+                return super.getAll(keys);
+            }
         }
     }
 }
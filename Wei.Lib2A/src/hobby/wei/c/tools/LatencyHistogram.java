@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 耗时的对数分桶直方图（类似HdrHistogram，每个2的n次方区间再等分为{@link #SUB_BUCKETS}份，
+ * 相对误差不超过1/{@link #SUB_BUCKETS}）。以微秒计，记录不加锁（{@link StripedCounters}）。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    /** 每个2的n次方区间等分的份数。 */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** 覆盖约2^36us（约19小时），足够了。 */
+    private static final int MAGNITUDES = 36;
+    private static final int BUCKETS = (MAGNITUDES + 1) * SUB_BUCKETS;
+
+    private final StripedCounters mBuckets = new StripedCounters(BUCKETS);
+
+    public void record(long nanos) {
+        mBuckets.add(bucketOf(TimeUnit.NANOSECONDS.toMicros(nanos)), 1);
+    }
+
+    /**
+     * @return 各桶的计数，用于{@link #millisAt(long[], double)}.
+     */
+    public long[] snapshot() {
+        return mBuckets.sum();
+    }
+
+    /**
+     * @param buckets    {@link #snapshot()}的返回值。
+     * @param percentile 如50、99、99.9.
+     * @return 百分位数（毫秒），误差见{@link LatencyHistogram}. 没有记录则为0.
+     */
+    public static double millisAt(long[] buckets, double percentile) {
+        long total = 0;
+        for (long count : buckets) total += count;
+        if (total == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return upperBoundOf(i) / 1e3;
+        }
+        return upperBoundOf(buckets.length - 1) / 1e3;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) Math.max(0, micros);
+        final int magnitude = Math.min(MAGNITUDES, 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS + 1);
+        final int sub = (int) (micros >>> (magnitude - 1)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, magnitude * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * @return 该桶的上界（微秒）。
+     */
+    private static long upperBoundOf(int bucket) {
+        final int magnitude = bucket / SUB_BUCKETS, sub = bucket % SUB_BUCKETS;
+        if (magnitude == 0) return sub;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 1)) - 1;
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 以long为key的{@link LruCache}，语义（size、淘汰、统计、{@link #create}/{@link #entryRemoved}/{@link #sizeOf}）与之相同。
+ * <p>
+ * 以资源id、数字id为key的缓存，用{@link LruCache}时每个key都要装箱，每条数据还要一个{@link LinkedHashMap}的Entry，
+ * 在列表滑动等场景下会产生大量短命对象。本类的数据全部存放在几个平行的基本类型数组中：
+ * <ul>
+ * <li>哈希表为线性探测的开放寻址表，删除时向前移位而不留墓碑；</li>
+ * <li>LRU链表是以数组下标相连的侵入式双向链表；</li>
+ * <li>命中路径（{@link #get}）不分配任何对象。</li>
+ * </ul>
+ * 本类是线程安全的，与{@link LruCache}一样可通过对本对象加锁来组合多个操作。不允许null值。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class LongLruCache<V> implements CacheBudget.Resizable {
+    private static final int NONE = -1;
+
+    /** 开放寻址表，存放的是条目下标+1，0表示空槽。长度为2的n次方。 */
+    private int[] table;
+    /** 以下为条目数组，以下标相互关联。空闲条目通过next串成链表。 */
+    private long[] keys;
+    private Object[] values;
+    private int[] sizes;
+    private int[] prev, next;
+
+    /** LRU链表的头（最久未访问）和尾（最近访问）。 */
+    private int head = NONE, tail = NONE;
+    private int freeHead = NONE;
+    /** 曾使用过的条目数，之后的都是未用过的。 */
+    private int used;
+    private int count;
+
+    /**
+     * Size of this cache in units. Not necessarily the number of elements.
+     */
+    private int size;
+    private int maxSize;
+
+    private int putCount;
+    private int createCount;
+    private int evictionCount;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param maxSize 同{@link LruCache#LruCache(int)}.
+     */
+    public LongLruCache(int maxSize) {
+        this(maxSize, 16);
+    }
+
+    /**
+     * @param maxSize         同{@link LruCache#LruCache(int)}.
+     * @param initialCapacity 预计的条数，不够时会自动扩容。未覆写{@link #sizeOf}时通常就是maxSize.
+     */
+    public LongLruCache(int maxSize, int initialCapacity) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        allocate(Math.max(4, initialCapacity));
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 同{@link LruCache#get(Object)}.
+     */
+    public final V get(long key) {
+        V mapValue;
+        synchronized (this) {
+            final int index = indexOf(key);
+            if (index != NONE) {
+                hitCount++;
+                moveToTail(index);
+                return valueAt(index);
+            }
+            missCount++;
+        }
+
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            createCount++;
+            final int index = indexOf(key);
+            if (index != NONE) {
+                // There was a conflict so keep the existing value.
+                mapValue = valueAt(index);
+            } else {
+                mapValue = null;
+                final int createdSize = safeSizeOf(key, createdValue);
+                insert(key, createdValue, createdSize);
+                size += createdSize;
+            }
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(maxSize);
+            return createdValue;
+        }
+    }
+
+    /**
+     * 同{@link LruCache#put(Object, Object)}.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        V previous;
+        synchronized (this) {
+            putCount++;
+            final int valueSize = safeSizeOf(key, value);
+            final int index = indexOf(key);
+            if (index != NONE) {
+                previous = valueAt(index);
+                size += valueSize - sizes[index];
+                values[index] = value;
+                sizes[index] = valueSize;
+                moveToTail(index);
+            } else {
+                previous = null;
+                insert(key, value, valueSize);
+                size += valueSize;
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * 同{@link LruCache#trimToSize(int)}.
+     */
+    public void trimToSize(int maxSize) {
+        while (true) {
+            long key;
+            V value;
+            synchronized (this) {
+                if (size < 0 || (count == 0 && size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+
+                if (size <= maxSize || head == NONE) {
+                    break;
+                }
+
+                final int index = head;
+                key = keys[index];
+                value = valueAt(index);
+                size -= sizes[index];
+                delete(index);
+                evictionCount++;
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(long key) {
+        V previous = null;
+        synchronized (this) {
+            final int index = indexOf(key);
+            if (index != NONE) {
+                previous = valueAt(index);
+                size -= sizes[index];
+                delete(index);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+
+        return previous;
+    }
+
+    /**
+     * 是否包含，不影响访问顺序及统计。
+     */
+    public synchronized final boolean containsKey(long key) {
+        return indexOf(key) != NONE;
+    }
+
+    /**
+     * 同{@link LruCache#entryRemoved(boolean, Object, Object, Object)}.
+     */
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+    /**
+     * 同{@link LruCache#create(Object)}.
+     */
+    protected V create(long key) {
+        return null;
+    }
+
+    private int safeSizeOf(long key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * 同{@link LruCache#sizeOf(Object, Object)}.
+     */
+    protected int sizeOf(long key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    public synchronized final int size() {
+        return size;
+    }
+
+    public synchronized final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return 条数。未覆写{@link #sizeOf}时与{@link #size()}相同。
+     */
+    public synchronized final int count() {
+        return count;
+    }
+
+    public synchronized final int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized final int missCount() {
+        return missCount;
+    }
+
+    public synchronized final int createCount() {
+        return createCount;
+    }
+
+    public synchronized final int putCount() {
+        return putCount;
+    }
+
+    public synchronized final int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public synchronized final Map<Long, V> snapshot() {
+        final Map<Long, V> copy = new LinkedHashMap<>();
+        for (int i = head; i != NONE; i = next[i]) {
+            copy.put(keys[i], valueAt(i));
+        }
+        return copy;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("LongLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hitCount, missCount, hitPercent);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    private static int hash(long key) {
+        final long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(long key) {
+        final int mask = table.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            final int index = table[slot] - 1;
+            if (index == NONE) return NONE;
+            if (keys[index] == key) return index;
+        }
+    }
+
+    private void insert(long key, V value, int valueSize) {
+        if (count == keys.length) {
+            allocate(keys.length * 2);
+        }
+        final int index;
+        if (freeHead != NONE) {
+            index = freeHead;
+            freeHead = next[index];
+        } else {
+            index = used++;
+        }
+        keys[index] = key;
+        values[index] = value;
+        sizes[index] = valueSize;
+        final int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = index + 1;
+        linkTail(index);
+        count++;
+    }
+
+    private void delete(int index) {
+        final int mask = table.length - 1;
+        int slot = hash(keys[index]) & mask;
+        while (table[slot] - 1 != index) slot = (slot + 1) & mask;
+        // 向前移位：把后面探测链上的条目挪到空出来的槽，使查找不必跨越墓碑。
+        int hole = slot;
+        for (slot = (slot + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            final int ideal = hash(keys[table[slot] - 1]) & mask;
+            if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+        table[hole] = 0;
+
+        unlink(index);
+        values[index] = null;
+        next[index] = freeHead;
+        freeHead = index;
+        count--;
+    }
+
+    /**
+     * 条目数组扩容至capacity, 并按2倍重建哈希表。
+     */
+    private void allocate(int capacity) {
+        if (keys == null) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            sizes = new int[capacity];
+            prev = new int[capacity];
+            next = new int[capacity];
+        } else {
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        final int mask = table.length - 1;
+        for (int i = head; i != NONE; i = next[i]) {
+            int slot = hash(keys[i]) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+        }
+    }
+
+    private void linkTail(int index) {
+        prev[index] = tail;
+        next[index] = NONE;
+        if (tail == NONE) head = index;
+        else next[tail] = index;
+        tail = index;
+    }
+
+    private void unlink(int index) {
+        final int p = prev[index], n = next[index];
+        if (p == NONE) head = n;
+        else next[p] = n;
+        if (n == NONE) tail = p;
+        else prev[n] = p;
+    }
+
+    private void moveToTail(int index) {
+        if (tail == index) return;
+        unlink(index);
+        linkTail(index);
+    }
+}
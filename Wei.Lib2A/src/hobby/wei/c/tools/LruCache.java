@@ -17,8 +17,18 @@
 
 package hobby.wei.c.tools;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 原版的LruCache有个bug(Android 5.0, API Level 21), 所以这里copy一份。
@@ -68,8 +78,32 @@ import java.util.Map;
  * of <a href="http://developer.android.com/sdk/compatibility-library.html">Android's
  * Support Package</a> for earlier releases.
  */
-public class LruCache<K, V> {
-    private final LinkedHashMap<K, V> map;
+public class LruCache<K, V> implements CacheBudget.Resizable {
+    /**
+     * OFF_HEAP模式下不需要旧值时代替{@link #detach 分离形式}，{@link #decode}为null.
+     */
+    private static final Object UNREAD = new Object();
+
+    /**
+     * value为存储形式，见{@link Retention}: STRONG时即为V本身。
+     */
+    private final LinkedHashMap<K, Object> map;
+    /**
+     * 为null时即为原版的LRU淘汰策略。
+     */
+    private final EvictionPolicy<K> policy;
+    private final Retention retention;
+    private final ICache.Codec<V> codec;
+    /**
+     * 仅SOFT模式，被GC回收的值会进入此队列。
+     */
+    private final ReferenceQueue<V> collectedQueue;
+    /**
+     * SOFT模式的原版LRU: map按插入顺序，访问时重新插入到末尾以模拟访问顺序，这样才能在不改变顺序的前提下
+     * 取出SoftValue检查是否已被回收（见{@link #containsKey}）。
+     */
+    private final boolean reinsertOnAccess;
+    private final Set<K> keySet;
 
     /**
      * Size of this cache in units. Not necessarily the number of elements.
@@ -89,11 +123,94 @@ public class LruCache<K, V> {
      *                this is the maximum sum of the sizes of the entries in this cache.
      */
     public LruCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxSize 同{@link #LruCache(int)}.
+     * @param policy  可插拔的淘汰策略，如{@link TinyLfuPolicy}。为null则使用原版的LRU策略。
+     *                注意：一个策略对象只能给一个缓存实例使用。
+     */
+    public LruCache(int maxSize, EvictionPolicy<K> policy) {
+        this(maxSize, policy, Retention.STRONG, null);
+    }
+
+    /**
+     * @param maxSize   同{@link #LruCache(int)}.
+     * @param policy    同{@link #LruCache(int, EvictionPolicy)}.
+     * @param retention 值的保存方式。
+     * @param codec     {@link Retention#OFF_HEAP}时用于序列化，不可为null；其他模式忽略。
+     */
+    public LruCache(int maxSize, EvictionPolicy<K> policy, Retention retention, ICache.Codec<V> codec) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
+        if (retention == null) {
+            throw new NullPointerException("retention == null");
+        }
+        if (retention == Retention.OFF_HEAP && codec == null) {
+            throw new NullPointerException("OFF_HEAP模式需要codec");
+        }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
+        this.policy = policy;
+        this.retention = retention;
+        this.codec = codec;
+        this.collectedQueue = retention == Retention.SOFT ? new ReferenceQueue<V>() : null;
+        this.reinsertOnAccess = policy == null && retention == Retention.SOFT;
+        // 有自定义策略时访问顺序由策略维护，map本身不需要再按访问排序。
+        this.map = new LinkedHashMap<K, Object>(0, 0.75f, policy == null && !reinsertOnAccess);
+        this.keySet = new KeySetView();
+    }
+
+    /**
+     * 值的保存方式。
+     */
+    public enum Retention {
+        /**
+         * 强引用，即原版的行为。
+         */
+        STRONG,
+        /**
+         * 软引用：内存紧张时值可被GC回收，被回收的条目会自动移除并扣除其size，
+         * 计入{@link #evictionCount()}并回调{@link #entryCollected}（不回调{@link #entryRemoved}，因为值已经没有了）。
+         * 注意：仍然受maxSize限制。
+         */
+        SOFT,
+        /**
+         * 序列化之后存放在堆外的direct内存池中，不占Java堆，也不增加GC负担。每次命中都会反序列化出一个新对象，
+         * 因此适合较大、读取频率不太高的数据。{@link #entryRemoved}的oldValue也是反序列化出来的副本，
+         * 不需要时覆写{@link #needsOldValue()}, 则为null, 省去复制和反序列化。
+         * 锁内只复制出数据，反序列化总是在锁外进行。
+         */
+        OFF_HEAP
+    }
+
+    /**
+     * 淘汰策略。所有方法都在缓存的同步锁内被调用，因此实现不需要考虑线程安全。
+     */
+    public interface EvictionPolicy<K> {
+        /**
+         * 新增或替换了一条记录。
+         */
+        void onPut(K key, int size);
+
+        /**
+         * 命中了一条记录。
+         */
+        void onAccess(K key);
+
+        /**
+         * 一条记录被移除（包括被淘汰）。
+         */
+        void onRemove(K key);
+
+        /**
+         * 选出下一个应该被淘汰的key.
+         *
+         * @param maxSize 缓存当前的容量上限。
+         * @return null表示没有可淘汰的记录。
+         */
+        K victim(int maxSize);
     }
 
     /**
@@ -122,15 +239,39 @@ public class LruCache<K, V> {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
+        purgeCollected();
 
-        V mapValue;
+        Object mapValue;
+        Object stored;
+        boolean collected = false;
         synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                hitCount++;
-                return mapValue;
+            stored = map.get(key);
+            if (stored != null) {
+                final V softValue = retention == Retention.SOFT ? ((SoftValue<K, V>) stored).get() : null;
+                if (retention == Retention.SOFT && softValue == null) {
+                    // 已被回收但尚未进入队列。
+                    removeCollected((SoftValue<K, V>) stored);
+                    collected = true;
+                    stored = null;
+                } else {
+                    hitCount++;
+                    if (policy != null) policy.onAccess(key);
+                    if (reinsertOnAccess) {
+                        map.remove(key);
+                        map.put(key, stored);
+                    }
+                    if (retention == Retention.SOFT) return softValue;
+                    if (retention == Retention.STRONG) return (V) stored;
+                    // 在锁外反序列化，这里只复制出数据。
+                    stored = DirectBufferPool.load(((OffHeapValue) stored).buffer);
+                }
             }
-            missCount++;
+            if (stored == null) missCount++;
+        }
+        if (stored != null) return codec.decode((byte[]) stored);
+        if (collected) {
+            entryCollected(key);
+            collected = false;
         }
 
         /*
@@ -147,19 +288,26 @@ public class LruCache<K, V> {
 
         synchronized (this) {
             createCount++;
-            mapValue = map.put(key, createdValue);
+            final Object existing = map.get(key);
+            mapValue = existing == null ? null : detach(existing);
 
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                map.put(key, mapValue);
-            } else {
-                size += safeSizeOf(key, createdValue);
+            if (mapValue == null) {
+                if (existing != null) {
+                    removeCollected((SoftValue<K, V>) existing);
+                    collected = true;
+                }
+                final int createdSize = safeSizeOf(key, createdValue);
+                map.put(key, wrap(key, createdValue, createdSize));
+                size += createdSize;
+                if (policy != null) policy.onPut(key, createdSize);
             }
         }
 
+        if (collected) entryCollected(key);
         if (mapValue != null) {
-            entryRemoved(false, key, createdValue, mapValue);
-            return mapValue;
+            final V value = decode(mapValue);
+            entryRemoved(false, key, createdValue, value);
+            return value;
         } else {
             trimToSize(maxSize);
             return createdValue;
@@ -173,26 +321,66 @@ public class LruCache<K, V> {
      * @return the previous value mapped by {@code key}.
      */
     public final V put(K key, V value) {
+        final V previous = decode(putDetached(key, value, true));
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * 同{@link #put}, 但不返回旧值。{@link Retention#OFF_HEAP}模式下，若{@link #needsOldValue()}为false则不反序列化旧值。
+     */
+    public final void set(K key, V value) {
+        final Object detached = putDetached(key, value, needsOldValue());
+        if (detached != null) {
+            entryRemoved(false, key, decode(detached), value);
+        }
+
+        trimToSize(maxSize);
+    }
+
+    private Object putDetached(K key, V value, boolean keepOld) {
         if (key == null || value == null) {
             throw new NullPointerException("key == null || value == null");
         }
 
-        V previous;
+        purgeCollected();
         synchronized (this) {
             putCount++;
-            size += safeSizeOf(key, value);
-            previous = map.put(key, value);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
+            return putLocked(key, value, keepOld);
+        }
+    }
+
+    /**
+     * 批量{@link #put}，只获取一次锁，最后统一trim一次。
+     */
+    public final void putAll(Map<? extends K, ? extends V> values) {
+        purgeCollected();
+        final List<Object[]> replaced = new ArrayList<Object[]>();
+        final boolean keepOld = needsOldValue();
+        synchronized (this) {
+            for (Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+                final K key = entry.getKey();
+                final V value = entry.getValue();
+                if (key == null || value == null) {
+                    throw new NullPointerException("key == null || value == null");
+                }
+                putCount++;
+                final Object previous = putLocked(key, value, keepOld);
+                if (previous != null) {
+                    replaced.add(new Object[]{key, previous, value});
+                }
             }
         }
 
-        if (previous != null) {
-            entryRemoved(false, key, previous, value);
+        for (Object[] r : replaced) {
+            entryRemoved(false, (K) r[0], decode(r[1]), (V) r[2]);
         }
 
         trimToSize(maxSize);
-        return previous;
     }
 
     /**
@@ -203,9 +391,11 @@ public class LruCache<K, V> {
      *                to evict even 0-sized elements.
      */
     public void trimToSize(int maxSize) {
+        purgeCollected();
+        final boolean keepOld = needsOldValue();
         while (true) {
             K key;
-            V value;
+            Object value;
             synchronized (this) {
                 if (size < 0 || (map.isEmpty() && size != 0)) {
                     throw new IllegalStateException(getClass().getName()
@@ -216,23 +406,29 @@ public class LruCache<K, V> {
                     break;
                 }
 
-                Map.Entry<K, V> toEvict = null; // map.eldest();
-                for (Map.Entry<K, V> entry : map.entrySet()) {
-                    toEvict = entry;
-                    break;  // 仅仅取出第一个就返回。
+                final Object stored;
+                if (policy != null) {
+                    key = policy.victim(this.maxSize);
+                    stored = key == null ? null : map.get(key);
+                } else {
+                    Map.Entry<K, Object> toEvict = null; // map.eldest();
+                    for (Map.Entry<K, Object> entry : map.entrySet()) {
+                        toEvict = entry;
+                        break;  // 仅仅取出第一个就返回。
+                    }
+                    key = toEvict == null ? null : toEvict.getKey();
+                    stored = toEvict == null ? null : toEvict.getValue();
                 }
-                if (toEvict == null) {
+                if (stored == null) {
                     break;
                 }
-
-                key = toEvict.getKey();
-                value = toEvict.getValue();
-                map.remove(key);
-                size -= safeSizeOf(key, value);
+                value = removeEntry(key, stored, keepOld);
                 evictionCount++;
             }
 
-            entryRemoved(true, key, value, null);
+            // 软引用已被回收的，没有值可以回调了。
+            if (value != null) entryRemoved(true, key, decode(value), null);
+            else entryCollected(key);
         }
     }
 
@@ -242,23 +438,36 @@ public class LruCache<K, V> {
      * @return the previous value mapped by {@code key}.
      */
     public final V remove(K key) {
+        final V previous = decode(removeDetached(key, true));
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+
+        return previous;
+    }
+
+    /**
+     * 同{@link #remove}, 但不返回旧值。{@link Retention#OFF_HEAP}模式下，若{@link #needsOldValue()}为false则不反序列化旧值。
+     *
+     * @return 是否有值被移除。
+     */
+    public final boolean delete(K key) {
+        final Object detached = removeDetached(key, needsOldValue());
+        if (detached == null) return false;
+        entryRemoved(false, key, decode(detached), null);
+        return true;
+    }
+
+    private Object removeDetached(K key, boolean keepOld) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
 
-        V previous;
+        purgeCollected();
         synchronized (this) {
-            previous = map.remove(key);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
-            }
+            final Object stored = map.get(key);
+            return stored == null ? null : removeEntry(key, stored, keepOld);
         }
-
-        if (previous != null) {
-            entryRemoved(false, key, previous, null);
-        }
-
-        return previous;
     }
 
     /**
@@ -279,6 +488,14 @@ public class LruCache<K, V> {
     protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
     }
 
+    /**
+     * {@link #entryRemoved}是否需要oldValue. 仅影响{@link Retention#OFF_HEAP}模式：返回false时oldValue为null
+     * （{@link #set}, {@link #delete}, {@link #putAll}和淘汰都不再复制和反序列化旧值）。会在锁内调用，应直接返回常量。
+     */
+    protected boolean needsOldValue() {
+        return true;
+    }
+
     /**
      * Called after a cache miss to compute a value for the corresponding key.
      * Returns the computed value or null if no value can be computed. The
@@ -298,6 +515,13 @@ public class LruCache<K, V> {
         return null;
     }
 
+    /**
+     * 仅{@link Retention#SOFT}模式：某条数据的值已被GC回收，该条目已被移除并扣除了size.
+     * 与{@link #entryRemoved}一样在锁外调用。
+     */
+    protected void entryCollected(K key) {
+    }
+
     private int safeSizeOf(K key, V value) {
         int result = sizeOf(key, value);
         if (result < 0) {
@@ -329,8 +553,11 @@ public class LruCache<K, V> {
      * of entries in the cache. For all other caches, this returns the sum of
      * the sizes of the entries in this cache.
      */
-    public synchronized final int size() {
-        return size;
+    public final int size() {
+        purgeCollected();
+        synchronized (this) {
+            return size;
+        }
     }
 
     /**
@@ -379,12 +606,291 @@ public class LruCache<K, V> {
         return evictionCount;
     }
 
+    /**
+     * O(1)判断是否包含，不复制、不改变访问顺序，也不计入命中统计。
+     */
+    public final boolean containsKey(K key) {
+        // 不能用map.get(), 会改变访问顺序。
+        purgeCollected();
+        synchronized (this) {
+            return containsLocked(key);
+        }
+    }
+
+    /**
+     * 必须持有锁。已被回收但尚未进入队列的软引用视为不存在。
+     */
+    private boolean containsLocked(Object key) {
+        if (retention != Retention.SOFT) return map.containsKey(key);
+        // SOFT模式的map总是按插入顺序（见reinsertOnAccess），get()不会改变顺序。
+        final Object stored = map.get(key);
+        return stored != null && ((SoftValue<K, V>) stored).get() != null;
+    }
+
+    /**
+     * 遍历访问器，见{@link #forEach(EntryVisitor)}.
+     */
+    public interface EntryVisitor<K, V> {
+        /**
+         * @return false表示停止遍历。
+         */
+        boolean visit(K key, V value);
+    }
+
+    /**
+     * 在锁内按{@link #snapshot()}的顺序遍历，不复制、不改变访问顺序。
+     * visitor内不可修改本缓存，也不宜做耗时操作。
+     * <p>
+     * {@link Retention#OFF_HEAP}模式例外：在锁内复制出数据，在锁外反序列化并遍历。
+     */
+    public final void forEach(EntryVisitor<? super K, ? super V> visitor) {
+        if (retention == Retention.OFF_HEAP) {
+            for (Map.Entry<K, Object> entry : detachAll().entrySet()) {
+                if (!visitor.visit(entry.getKey(), decode(entry.getValue()))) break;
+            }
+            return;
+        }
+        synchronized (this) {
+            for (Map.Entry<K, Object> entry : map.entrySet()) {
+                final V value = (V) detach(entry.getValue());
+                if (value != null && !visitor.visit(entry.getKey(), value)) break;
+            }
+        }
+    }
+
+    /**
+     * 不复制的只读key视图，{@link Set#contains}不改变访问顺序。
+     * <p>
+     * 与{@link Collections#synchronizedMap}的视图一样，遍历时必须对本缓存加锁：
+     * <pre>   {@code
+     *   synchronized (cache) {
+     *     for (K key : cache.keySet()) ...
+     *   }}</pre>
+     * 否则可能抛出{@link java.util.ConcurrentModificationException}. 不需要加锁的遍历请用{@link #forEach}.
+     */
+    public final Set<K> keySet() {
+        return keySet;
+    }
+
     /**
      * Returns a copy of the current contents of the cache, ordered from least
      * recently accessed to most recently accessed.
+     * 有自定义{@link EvictionPolicy}时为插入顺序。
+     */
+    public final Map<K, V> snapshot() {
+        final Map<K, Object> detached = detachAll();
+        if (retention != Retention.OFF_HEAP) return (Map<K, V>) detached;
+        final Map<K, V> copy = new LinkedHashMap<K, V>();
+        for (Map.Entry<K, Object> entry : detached.entrySet()) {
+            copy.put(entry.getKey(), decode(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * 在锁内复制出所有条目的{@link #detach 分离形式}，不含已被回收的软引用。
+     */
+    private synchronized Map<K, Object> detachAll() {
+        if (retention == Retention.STRONG) return new LinkedHashMap<K, Object>(map);
+        final Map<K, Object> copy = new LinkedHashMap<K, Object>();
+        for (Map.Entry<K, Object> entry : map.entrySet()) {
+            final Object value = detach(entry.getValue());
+            if (value != null) copy.put(entry.getKey(), value);
+        }
+        return copy;
+    }
+
+    /**
+     * 必须持有锁。
+     *
+     * @param keepOld 是否需要被替换的值。
+     * @return 被替换的值的{@link #detach 分离形式}，在锁外{@link #decode}.
+     */
+    private Object putLocked(K key, V value, boolean keepOld) {
+        final int valueSize = safeSizeOf(key, value);
+        // 先wrap, 序列化失败不会留下不一致的状态。
+        final Object wrapped = wrap(key, value, valueSize);
+        final Object removed = reinsertOnAccess ? map.remove(key) : null;
+        final Object replaced = map.put(key, wrapped);
+        final Object existing = removed != null ? removed : replaced;
+        final Object previous = existing == null ? null : detach(existing, keepOld);
+        if (existing != null) {
+            size -= storedSizeOf(key, existing);
+            release(existing);
+        }
+        size += valueSize;
+        if (policy != null) policy.onPut(key, valueSize);
+        return previous;
+    }
+
+    /**
+     * 必须持有锁。移除条目，扣除size并释放存储。
+     *
+     * @param keepValue 是否需要原来的值。
+     * @return 原来的值的{@link #detach 分离形式}，软引用已被回收则为null.
+     */
+    private Object removeEntry(K key, Object stored, boolean keepValue) {
+        final Object value = detach(stored, keepValue);
+        map.remove(key);
+        size -= storedSizeOf(key, stored);
+        release(stored);
+        if (policy != null) policy.onRemove(key);
+        return value;
+    }
+
+    /**
+     * 必须持有锁。
+     */
+    private void removeCollected(SoftValue<K, V> ref) {
+        // 可能已被替换或移除。
+        if (ref.released) return;
+        removeEntry(ref.key, ref, false);
+        evictionCount++;
+    }
+
+    /**
+     * 清理已被GC回收的软引用条目，在锁外回调{@link #entryCollected}.
      */
-    public synchronized final Map<K, V> snapshot() {
-        return new LinkedHashMap<K, V>(map);
+    private void purgeCollected() {
+        if (collectedQueue == null) return;
+        List<K> collected = null;
+        synchronized (this) {
+            Reference<? extends V> ref;
+            while ((ref = collectedQueue.poll()) != null) {
+                final SoftValue<K, V> value = (SoftValue<K, V>) ref;
+                if (value.released) continue;
+                removeCollected(value);
+                if (collected == null) collected = new ArrayList<K>();
+                collected.add(value.key);
+            }
+        }
+        if (collected != null) {
+            for (K key : collected) entryCollected(key);
+        }
+    }
+
+    private Object wrap(K key, V value, int valueSize) {
+        switch (retention) {
+            case SOFT:
+                return new SoftValue<K, V>(key, value, valueSize, collectedQueue);
+            case OFF_HEAP:
+                return new OffHeapValue(DirectBufferPool.INSTANCE.store(codec.encode(value)), valueSize);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * 必须持有锁。取出可以在锁外使用的形式：OFF_HEAP为复制出的byte[]（之后存储可能被释放），其他模式即为值本身。
+     * 反序列化较慢，留到锁外由{@link #decode}进行。
+     *
+     * @return 软引用已被回收则为null.
+     */
+    private Object detach(Object stored) {
+        switch (retention) {
+            case SOFT:
+                return ((SoftValue<K, V>) stored).get();
+            case OFF_HEAP:
+                return DirectBufferPool.load(((OffHeapValue) stored).buffer);
+            default:
+                return stored;
+        }
+    }
+
+    /**
+     * 必须持有锁。
+     *
+     * @param keep 为false时OFF_HEAP模式不复制数据，返回{@link #UNREAD}.
+     */
+    private Object detach(Object stored, boolean keep) {
+        return keep || retention != Retention.OFF_HEAP ? detach(stored) : UNREAD;
+    }
+
+    /**
+     * 在锁外调用。
+     */
+    private V decode(Object detached) {
+        if (detached == null || detached == UNREAD) return null;
+        return retention == Retention.OFF_HEAP ? codec.decode((byte[]) detached) : (V) detached;
+    }
+
+    /**
+     * 非STRONG模式的size在写入时记下，因为值可能已经不在了（或反序列化代价较高）。
+     */
+    private int storedSizeOf(K key, Object stored) {
+        switch (retention) {
+            case SOFT:
+                return ((SoftValue<K, V>) stored).size;
+            case OFF_HEAP:
+                return ((OffHeapValue) stored).size;
+            default:
+                return safeSizeOf(key, (V) stored);
+        }
+    }
+
+    private void release(Object stored) {
+        if (retention == Retention.OFF_HEAP) DirectBufferPool.INSTANCE.release(((OffHeapValue) stored).buffer);
+        else if (retention == Retention.SOFT) ((SoftValue<K, V>) stored).released = true;
+    }
+
+    private static final class SoftValue<K, V> extends SoftReference<V> {
+        final K key;
+        final int size;
+        /** 已被移除或替换，由缓存的锁保护。 */
+        boolean released;
+
+        SoftValue(K key, V value, int size, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    private static final class OffHeapValue {
+        final ByteBuffer buffer;
+        final int size;
+
+        OffHeapValue(ByteBuffer buffer, int size) {
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+
+    private final class KeySetView extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            final Iterator<K> it = map.keySet().iterator();
+            return new Iterator<K>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return it.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            synchronized (LruCache.this) {
+                return map.size();
+            }
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            synchronized (LruCache.this) {
+                return containsLocked(o);
+            }
+        }
     }
 
     @Override
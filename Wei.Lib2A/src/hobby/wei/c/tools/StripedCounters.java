@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一组按线程分散的计数器（类似<code>LongAdder</code>，但兼容Java 7）：每个线程按其id落到一个条带上，
+ * 减少多核同时写同一个缓存行的竞争。写不加锁，读取时求和，各项之间不保证是同一时刻的值。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class StripedCounters {
+    private static final int STRIPES = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private final int width;
+    private final AtomicLongArray cells;
+
+    /**
+     * @param width 计数器的个数。
+     */
+    public StripedCounters(int width) {
+        this.width = width;
+        cells = new AtomicLongArray(width * STRIPES);
+    }
+
+    public void add(int index, long delta) {
+        final int stripe = (int) (Thread.currentThread().getId() * 0x9e3779b9L >>> 16) & (STRIPES - 1);
+        cells.addAndGet(stripe * width + index, delta);
+    }
+
+    public long[] sum() {
+        final long[] sums = new long[width];
+        for (int s = 0; s < STRIPES; s++) {
+            for (int i = 0; i < width; i++) {
+                sums[i] += cells.get(s * width + i);
+            }
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分层时间轮，用于以O(1)的代价调度和收集到期的key，而不需要扫描整个缓存。
+ * <p>
+ * 共四层，每层64个桶，每个桶的跨度分别约为1秒、1分钟、1小时、3天（均为2的n次方毫秒）。
+ * 高层的桶到期时，其中尚未到期的key会被重新调度到低层的桶里。超出最高层范围的key放在最高层，
+ * 到期时同样重新调度，因此不会丢失。
+ * <p>
+ * 本类是线程安全的。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+/*package*/ class TimerWheel<K> {
+    private static final int BUCKETS = 64;
+    private static final int[] SHIFTS = {10, 16, 22, 28};
+    /**最低层一个桶的跨度（毫秒），比这更频繁地{@link #advance(long)}没有意义。**/
+    static final long TICK_MS = 1L << SHIFTS[0];
+
+    private final Node<K>[][] wheel;
+    private final Map<K, Node<K>> key2Node = new HashMap<>();
+    private long time;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long now) {
+        wheel = (Node<K>[][]) new Node<?>[SHIFTS.length][BUCKETS];
+        time = now;
+    }
+
+    /**
+     * 调度（或重新调度）一个key在deadline到期。
+     */
+    public synchronized void schedule(K key, long deadline) {
+        Node<K> node = key2Node.get(key);
+        if (node == null) {
+            node = new Node<>(key);
+            key2Node.put(key, node);
+        } else {
+            unlink(node);
+        }
+        node.deadline = deadline;
+        link(node);
+    }
+
+    public synchronized void cancel(K key) {
+        final Node<K> node = key2Node.remove(key);
+        if (node != null) unlink(node);
+    }
+
+    public synchronized void clear() {
+        key2Node.clear();
+        for (Node<K>[] level : wheel) {
+            for (int i = 0; i < level.length; i++) level[i] = null;
+        }
+    }
+
+    /**
+     * 推进时间，并取出所有已到期的key（同时从本时间轮中移除）。
+     *
+     * @return 不会为null.
+     */
+    public synchronized List<K> advance(long now) {
+        if (now <= time) return Collections.emptyList();
+        final long previous = time;
+        time = now;
+        List<K> expired = null;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            final long prevTicks = previous >>> SHIFTS[i];
+            final long currTicks = now >>> SHIFTS[i];
+            // 低层没有跨过一个桶，高层也一定没有。但最低层需要重新检查当前桶，以免同一个桶内的key被延后一整圈。
+            if (i > 0 && currTicks == prevTicks) break;
+            final long delta = Math.min(currTicks - prevTicks + 1, BUCKETS);
+            for (long tick = currTicks - delta + 1; tick <= currTicks; tick++) {
+                expired = expire(i, (int) (tick & (BUCKETS - 1)), now, expired);
+            }
+        }
+        return expired == null ? Collections.<K>emptyList() : expired;
+    }
+
+    private List<K> expire(int level, int index, long now, List<K> expired) {
+        Node<K> node = wheel[level][index];
+        wheel[level][index] = null;
+        while (node != null) {
+            final Node<K> next = node.next;
+            node.prev = node.next = null;
+            if (node.deadline <= now) {
+                key2Node.remove(node.key);
+                if (expired == null) expired = new ArrayList<>();
+                expired.add(node.key);
+            } else {
+                link(node);
+            }
+            node = next;
+        }
+        return expired;
+    }
+
+    private void link(Node<K> node) {
+        final long delay = node.deadline - time;
+        int level = SHIFTS.length - 1;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            if (delay < ((long) BUCKETS << SHIFTS[i])) {
+                level = i;
+                break;
+            }
+        }
+        final int index = (int) ((Math.max(node.deadline, time) >>> SHIFTS[level]) & (BUCKETS - 1));
+        final Node<K> head = wheel[level][index];
+        node.level = level;
+        node.index = index;
+        node.prev = null;
+        node.next = head;
+        if (head != null) head.prev = node;
+        wheel[level][index] = node;
+    }
+
+    private void unlink(Node<K> node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else if (wheel[node.level][node.index] == node) {
+            wheel[node.level][node.index] = node.next;
+        }
+        if (node.next != null) node.next.prev = node.prev;
+        node.prev = node.next = null;
+    }
+
+    private static class Node<K> {
+        final K key;
+        long deadline;
+        int level, index;
+        Node<K> prev, next;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU淘汰策略。
+ * <p>
+ * 纯LRU在一次大范围扫描（如遍历一个用户列表）之后，会把真正的热点数据全部挤出去。本策略把缓存分为三段：
+ * <ul>
+ * <li>window: 约占1%的容量，纯LRU，新数据都先进入这里，用于吸收突发流量；</li>
+ * <li>probation: 从window淘汰出来的数据，若访问频率高于probation段的淘汰候选者，才被准入；</li>
+ * <li>protected: 在probation段再次被访问的数据晋升至此，约占主区的80%.</li>
+ * </ul>
+ * 访问频率由一个带周期性衰减（所有计数减半）的Count-Min Sketch估算，每个计数器只占4bit.
+ * <p>
+ * 用法：<code>new LruCache&lt;K, V&gt;(maxSize, new TinyLfuPolicy&lt;K&gt;())</code>，
+ * 或{@link ICache.Impl#Impl(int, ICache.Delegate, boolean)}.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class TinyLfuPolicy<K> implements LruCache.EvictionPolicy<K> {
+    private static final float WINDOW_PERCENT = 0.01f;
+    private static final float PROTECTED_PERCENT = 0.8f;
+
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    /** 以下三段都是按插入顺序排列的，头部即为最久未访问的，value为该条数据的size. */
+    private final LinkedHashMap<K, Integer> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Integer> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Integer> protect = new LinkedHashMap<>();
+    private final Map<K, Integer> key2Segment = new HashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private int windowSize, probationSize, protectSize;
+
+    @Override
+    public void onPut(K key, int size) {
+        sketch.increment(key, key2Segment.size() + 1);
+        final Integer segment = key2Segment.get(key);
+        if (segment == null) {
+            window.put(key, size);
+            windowSize += size;
+            key2Segment.put(key, WINDOW);
+        } else {
+            // 替换值：size可能改变，同时视为一次访问。
+            final LinkedHashMap<K, Integer> queue = queueOf(segment);
+            final int old = queue.remove(key);
+            queue.put(key, size);
+            addSize(segment, size - old);
+            onAccess(key);
+        }
+    }
+
+    @Override
+    public void onAccess(K key) {
+        sketch.increment(key, key2Segment.size());
+        final Integer segment = key2Segment.get(key);
+        if (segment == null) return;
+        switch (segment) {
+            case WINDOW:
+                window.put(key, window.remove(key));
+                break;
+            case PROBATION:
+                final int size = probation.remove(key);
+                probationSize -= size;
+                protect.put(key, size);
+                protectSize += size;
+                key2Segment.put(key, PROTECTED);
+                break;
+            case PROTECTED:
+                protect.put(key, protect.remove(key));
+                break;
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        final Integer segment = key2Segment.remove(key);
+        if (segment == null) return;
+        final int size = queueOf(segment).remove(key);
+        addSize(segment, -size);
+    }
+
+    @Override
+    public K victim(int maxSize) {
+        final int windowMax = Math.max(1, (int) (maxSize * WINDOW_PERCENT));
+        final int protectMax = Math.max(1, (int) ((maxSize - windowMax) * PROTECTED_PERCENT));
+        // protected段超出配额，将其头部降级到probation段。
+        while (protectSize > protectMax && !protect.isEmpty()) {
+            final K demote = eldest(protect);
+            final int size = protect.remove(demote);
+            protectSize -= size;
+            probation.put(demote, size);
+            probationSize += size;
+            key2Segment.put(demote, PROBATION);
+        }
+        while (windowSize > windowMax && !window.isEmpty()) {
+            final K candidate = eldest(window);
+            // 主区还有空间，直接转入probation段，不需要淘汰。
+            if (probationSize + protectSize + window.get(candidate) <= maxSize - windowMax) {
+                moveToProbation(candidate);
+                continue;
+            }
+            final K victim = !probation.isEmpty() ? eldest(probation) : eldest(protect);
+            if (victim == null) return candidate;
+            // 准入判断：候选者频率更高才能进入主区，否则淘汰候选者自己。
+            if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+                moveToProbation(candidate);
+                return victim;
+            }
+            return candidate;
+        }
+        if (!probation.isEmpty()) return eldest(probation);
+        if (!protect.isEmpty()) return eldest(protect);
+        return eldest(window);
+    }
+
+    private void moveToProbation(K key) {
+        final int size = window.remove(key);
+        windowSize -= size;
+        probation.put(key, size);
+        probationSize += size;
+        key2Segment.put(key, PROBATION);
+    }
+
+    private LinkedHashMap<K, Integer> queueOf(int segment) {
+        return segment == WINDOW ? window : segment == PROBATION ? probation : protect;
+    }
+
+    private void addSize(int segment, int delta) {
+        if (segment == WINDOW) windowSize += delta;
+        else if (segment == PROBATION) probationSize += delta;
+        else protectSize += delta;
+    }
+
+    private static <K> K eldest(LinkedHashMap<K, Integer> queue) {
+        final Iterator<K> it = queue.keySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * 4-bit Count-Min Sketch，每个long存放16个计数器，共4个哈希函数。
+     * 计数总次数达到样本量（条数的10倍）时，所有计数减半，使过时的热点逐渐冷却。
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private long[] table;
+        private int tableMask;
+        private int sampleSize;
+        private int additions;
+
+        FrequencySketch() {
+            ensureCapacity(16);
+        }
+
+        private void ensureCapacity(int maxEntries) {
+            final int capacity = Math.max(16, Math.min(1 << 24, ceilingPowerOfTwo(maxEntries)));
+            if (table != null && table.length >= capacity) return;
+            final long[] old = table;
+            table = new long[capacity];
+            // 下标是哈希与掩码相与，扩大之后新下标的低位就是原来的下标：把原表复制到每一份上，所有估计值不变。
+            // 否则条数增长期间的计数会全部丢失，恰好在缓存刚满、开始做准入判断时把热点当成冷数据。
+            if (old != null) {
+                for (int i = 0; i < capacity; i += old.length) {
+                    System.arraycopy(old, 0, table, i, old.length);
+                }
+            }
+            tableMask = capacity - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        /**
+         * @param entries 当前条数，用于按需扩大计数表。
+         */
+        void increment(Object key, int entries) {
+            if (entries > table.length) ensureCapacity(entries);
+            final int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), (hash >>> (i << 3)) & 15);
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(Object key) {
+            final int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                final int offset = ((hash >>> (i << 3)) & 15) << 2;
+                final int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            final int offset = counter << 2;
+            final long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions >>>= 1;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+
+        private static int ceilingPowerOfTwo(int x) {
+            return x <= 1 ? 1 : Integer.highestOneBit(x - 1) << 1;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按名称（不区分大小写）缓存实例的注册表，只弱引用实例。
+ * <p>
+ * 查找不加锁，是一次{@link ConcurrentHashMap#get}; 只有创建新实例时才加锁（以保证同名只有一个实例）。
+ * 被回收的实例通过{@link ReferenceQueue}在下次创建时清除，不需要遍历。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class WeakRegistry<V> {
+    public interface Factory<V> {
+        /**
+         * @param name 原始的（未转换大小写的）名称。
+         */
+        V create(String name);
+    }
+
+    private final ConcurrentHashMap<String, Ref<V>> mMap = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> mQueue = new ReferenceQueue<>();
+
+    /**
+     * @return 不存在或已被回收则为null.
+     */
+    public V get(String name) {
+        final Ref<V> ref = mMap.get(keyOf(name));
+        return ref == null ? null : ref.get();
+    }
+
+    public V get(String name, Factory<V> factory) {
+        final String key = keyOf(name);
+        Ref<V> ref = mMap.get(key);
+        V value = ref == null ? null : ref.get();
+        if (value != null) return value;
+        synchronized (this) {
+            purge();
+            ref = mMap.get(key);
+            value = ref == null ? null : ref.get();
+            if (value == null) {
+                value = factory.create(name);
+                mMap.put(key, new Ref<>(key, value, mQueue));
+            }
+            return value;
+        }
+    }
+
+    public int size() {
+        purge();
+        return mMap.size();
+    }
+
+    private void purge() {
+        Ref<?> ref;
+        while ((ref = (Ref<?>) mQueue.poll()) != null) {
+            // 可能已被同名的新实例替换，只删除自己。
+            mMap.remove(ref.key, ref);
+        }
+    }
+
+    private static String keyOf(String name) {
+        return name.toLowerCase(Locale.US);
+    }
+
+    private static class Ref<V> extends WeakReference<V> {
+        final String key;
+
+        Ref(String key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import hobby.wei.c.L;
+
+/**
+ * {@link ICache.Impl#writeBehind}的写队列：同一个key的多次更新只保留最后一次，
+ * 积累到指定条数或自第一条入队起经过指定时间，由后台线程批量写入{@link ICache.Delegate#update}.
+ * <p>
+ * 所有实例共用一个后台线程，同一实例的批次按顺序写入。{@link hobby.wei.c.framework.AbsApp}退出时会在有限的时间内
+ * 尽量写完所有队列；另外注册了JVM关闭钩子，但Android的进程通常是被直接kill的，钩子不会执行，只是尽力而为。
+ * 因此不保证排队中的数据一定能写入。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+/*package*/ abstract class WriteBehind<K, V> {
+    private static final Set<WriteBehind<?, ?>> sInstances = Collections.newSetFromMap(
+            new WeakHashMap<WriteBehind<?, ?>, Boolean>());
+    private static final ScheduledThreadPoolExecutor sWriter = newWriter();
+
+    private final ICache.Delegate<K, V> mDelegate;
+    private final int mMaxBatch;
+    private final long mDelayMs;
+    /** 按入队顺序，由this保护。 */
+    private LinkedHashMap<K, V> mPending = new LinkedHashMap<>();
+    /** 正在写入的批次，由this保护。 */
+    private Map<K, V> mWriting = Collections.emptyMap();
+    private boolean mScheduled;
+    /** 已提交了立即写入（队列已满）而尚未开始，由this保护。避免队列满了之后每次入队都再提交一次。 */
+    private boolean mFlushSubmitted;
+    private final Object mFlushLock = new Object();
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    WriteBehind(ICache.Delegate<K, V> delegate, int maxBatch, long delayMs) {
+        if (maxBatch <= 0) throw new IllegalArgumentException("maxBatch <= 0");
+        mDelegate = delegate;
+        mMaxBatch = maxBatch;
+        mDelayMs = Math.max(0, delayMs);
+        synchronized (sInstances) {
+            sInstances.add(this);
+        }
+    }
+
+    /**
+     * 某条数据写入失败（{@link ICache.Delegate#update}返回false或抛出异常）。在后台线程回调。
+     *
+     * @param e 返回false时为null.
+     */
+    protected abstract void onWriteFailed(K key, V value, RuntimeException e);
+
+    public synchronized void enqueue(K key, V value) {
+        // 先移除，使合并后的key排在最新的位置。
+        mPending.remove(key);
+        mPending.put(key, value);
+        if (mPending.size() >= mMaxBatch) {
+            if (mFlushSubmitted) return;
+            mFlushSubmitted = mScheduled = true;
+            sWriter.execute(mFlushTask);
+        } else if (!mScheduled) {
+            mScheduled = true;
+            sWriter.schedule(mFlushTask, mDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return 尚未写入完成的最新值，没有则为null.
+     */
+    public synchronized V pending(K key) {
+        final V value = mPending.get(key);
+        return value != null ? value : mWriting.get(key);
+    }
+
+    public synchronized boolean isPending(K key) {
+        return mPending.containsKey(key);
+    }
+
+    /**
+     * 在当前线程写入队列中的所有数据，返回时已全部写完。
+     */
+    public void flush() {
+        synchronized (mFlushLock) {
+            final Map<K, V> batch;
+            synchronized (this) {
+                mScheduled = mFlushSubmitted = false;
+                if (mPending.isEmpty()) return;
+                batch = mPending;
+                mWriting = batch;
+                mPending = new LinkedHashMap<>();
+            }
+            try {
+                for (Map.Entry<K, V> entry : batch.entrySet()) {
+                    write(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                synchronized (this) {
+                    mWriting = Collections.emptyMap();
+                }
+            }
+        }
+    }
+
+    private void write(K key, V value) {
+        RuntimeException error = null;
+        boolean success;
+        try {
+            success = mDelegate.update(key, value);
+        } catch (RuntimeException e) {
+            error = e;
+            success = false;
+        }
+        if (!success) {
+            try {
+                onWriteFailed(key, value, error);
+            } catch (RuntimeException e) {
+                L.e(WriteBehind.class, e);
+            }
+        }
+    }
+
+    /**
+     * 写完所有实例的队列。
+     */
+    static void flushAll() {
+        final List<WriteBehind<?, ?>> instances;
+        synchronized (sInstances) {
+            instances = new ArrayList<>(sInstances);
+        }
+        for (WriteBehind<?, ?> instance : instances) {
+            instance.flush();
+        }
+    }
+
+    /**
+     * 在后台写线程上写完所有实例的队列，当前线程最多等待指定时间。
+     *
+     * @return 是否已全部写完。
+     */
+    static boolean flushAll(long timeout, TimeUnit unit) {
+        final Future<?> future = sWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                flushAll();
+            }
+        });
+        try {
+            future.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            L.e(WriteBehind.class, e.getCause());
+            return false;
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newWriter() {
+        final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "ICache-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // 仅尽力而为：进程被kill时不会执行。
+        Runtime.getRuntime().addShutdownHook(new Thread("ICache-writer-shutdown") {
+            @Override
+            public void run() {
+                flushAll();
+            }
+        });
+        return writer;
+    }
+}
@@ -24,64 +24,84 @@ import hobby.wei.c.persist.Keeper;
  */
 public class UsedKeeper {
     public static class AppS extends Keeper.Wrapper {
+        private static final Keeper.BooleanField FIRST_LAUNCH = new Keeper.BooleanField("first_launch", true);
+
         public static Keeper ins() {
             return get(AbsApp.get(), "AbsApp").multiProcess().ok();
         }
 
         public static Keeper getModule(int moduleId) {
-            return get(AbsApp.get(), "AbsApp_module_" + moduleId).multiProcess().ok();
+            return moduleBuilder(moduleId).ok();
+        }
+
+        public static Keeper.Builder moduleBuilder(int moduleId) {
+            return get(AbsApp.get(), "AbsApp_module_" + moduleId).multiProcess();
         }
 
         public static boolean getFirstLaunch(int moduleId) {
-            return getModule(moduleId).readBoolean("first_launch", true);
+            return FIRST_LAUNCH.read(getModule(moduleId));
         }
 
         public static void clearFirstLaunch(int moduleId) {
-            getModule(moduleId).keepBoolean("first_launch", false);
+            FIRST_LAUNCH.keep(getModule(moduleId), false);
         }
     }
 
     public static class DeviceS extends Keeper.Wrapper {
+        private static final Keeper.StringField UNIQUE_ID = new Keeper.StringField("unique_id", null);
+
         public static Keeper ins() {
-            return get(AbsApp.get(), "Device").multiProcess().ok();
+            return builder().ok();
+        }
+
+        public static Keeper.Builder builder() {
+            return get(AbsApp.get(), "Device").multiProcess();
         }
 
         public static String getUniqueId() {
-            return ins().readString("unique_id");
+            return UNIQUE_ID.read(ins());
         }
 
         public static void saveUniqueId(String value) {
-            ins().keepString("unique_id", value);
+            UNIQUE_ID.keep(ins(), value);
         }
     }
 
     public static class UserHelperS extends Keeper.Wrapper {
+        private static final Keeper.StringField TOKEN = new Keeper.StringField("token", null);
+        private static final Keeper.StringField ACCOUNT = new Keeper.StringField("account", null);
+        private static final Keeper.BooleanField AUTHORITY_FLAG = new Keeper.BooleanField("authority_flag", false);
+
         public static Keeper ins() {
-            return get(AbsApp.get(), "UserHelper").multiProcess().ok();
+            return builder().ok();
+        }
+
+        public static Keeper.Builder builder() {
+            return get(AbsApp.get(), "UserHelper").multiProcess();
         }
 
         public static void saveToken(String value) {
-            ins().keepString("token", value);
+            TOKEN.keep(ins(), value);
         }
 
         public static String getToken() {
-            return ins().readString("token");
+            return TOKEN.read(ins());
         }
 
         public static void saveAccountJson(String value) {
-            ins().keepString("account", value);
+            ACCOUNT.keep(ins(), value);
         }
 
         public static String getAccountJson() {
-            return ins().readString("account");
+            return ACCOUNT.read(ins());
         }
 
         public static void saveAuthorityFlag(boolean value) {
-            ins().keepBoolean("authority_flag", value);
+            AUTHORITY_FLAG.keep(ins(), value);
         }
 
         public static boolean getIsAuthorizeSuccess() {
-            return ins().readBoolean("authority_flag");
+            return AUTHORITY_FLAG.read(ins());
         }
     }
 }
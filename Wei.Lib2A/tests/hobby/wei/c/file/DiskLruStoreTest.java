@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.file;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * journal回放：模拟进程在各个时刻崩溃后留下的文件，重新打开。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class DiskLruStoreTest {
+	private static final int APP_VERSION = 1;
+	private static final long MAX_SIZE = 1024;
+
+	private File mDir;
+
+	@Before
+	public void setUp() throws IOException {
+		mDir = File.createTempFile("DiskLruStoreTest", "");
+		assertTrue(mDir.delete());
+		assertTrue(mDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		delete(mDir);
+	}
+
+	@Test
+	public void dirtyWithoutCleanIsDiscardedOnReopen() throws IOException {
+		DiskLruStore store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		store.put("a", bytes(10, 'a'));
+		store.put("b", bytes(20, 'b'));
+		store.close();
+		// a: 覆盖写入时崩溃；c: 新写入已rename但还没来得及写CLEAN.
+		appendJournal("DIRTY a\nDIRTY c\n");
+		write(new File(mDir, "a.tmp"), bytes(3, 'x'));
+		write(new File(mDir, "c"), bytes(5, 'c'));
+
+		store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		assertFalse(store.contains("a"));
+		assertFalse(store.contains("c"));
+		assertArrayEquals(bytes(20, 'b'), store.get("b"));
+		assertEquals(20, store.size());
+		assertFalse(new File(mDir, "a").exists());
+		assertFalse(new File(mDir, "a.tmp").exists());
+		assertFalse(new File(mDir, "c").exists());
+		store.close();
+	}
+
+	@Test
+	public void truncatedTailLineIsIgnored() throws IOException {
+		DiskLruStore store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		store.put("a", bytes(12, 'a'));
+		store.close();
+		// "CLEAN b 12"只写了一半，长度不可信。
+		appendJournal("DIRTY b\nCLEAN b 1");
+		write(new File(mDir, "b"), bytes(12, 'b'));
+
+		store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		assertFalse(store.contains("b"));
+		assertFalse(new File(mDir, "b").exists());
+		assertEquals(12, store.size());
+		// 之后的记录不能与残缺的行连在一起。
+		store.put("c", bytes(7, 'c'));
+		store.close();
+
+		store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		assertArrayEquals(bytes(12, 'a'), store.get("a"));
+		assertArrayEquals(bytes(7, 'c'), store.get("c"));
+		assertEquals(19, store.size());
+		store.close();
+	}
+
+	@Test
+	public void interruptedJournalRewriteRecoversFromBackup() throws IOException {
+		DiskLruStore store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		store.put("a", bytes(10, 'a'));
+		store.put("b", bytes(20, 'b'));
+		store.close();
+		// 重写journal时崩溃在两次rename之间：旧journal已改名为备份，新的还在临时文件里（可能不完整）。
+		assertTrue(new File(mDir, "journal").renameTo(new File(mDir, "journal.bkp")));
+		write(new File(mDir, "journal.tmp"), "hobby.wei.c.DiskLru".getBytes("UTF-8"));
+
+		store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		assertArrayEquals(bytes(10, 'a'), store.get("a"));
+		assertArrayEquals(bytes(20, 'b'), store.get("b"));
+		assertEquals(30, store.size());
+		assertFalse(new File(mDir, "journal.bkp").exists());
+		store.close();
+	}
+
+	@Test
+	public void failedJournalRewriteKeepsTheOldWriter() throws IOException {
+		DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE).close();
+		// 临时journal无法创建，之后每次压缩都会失败。
+		final File tmp = new File(mDir, "journal.tmp");
+		assertTrue(new File(tmp, "blocker").mkdirs());
+
+		DiskLruStore store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		for (int i = 0; i < 1100; i++) {
+			store.put("a", bytes(1, 'a'));
+			store.remove("a");
+		}
+		assertTrue(store.put("b", bytes(8, 'b')));
+		store.close();
+		delete(tmp);
+
+		store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		assertFalse(store.contains("a"));
+		assertArrayEquals(bytes(8, 'b'), store.get("b"));
+		store.close();
+	}
+
+	@Test
+	public void trimOnOpenIsJournaled() throws IOException {
+		DiskLruStore store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		store.put("a", bytes(600, 'a'));
+		store.put("b", bytes(400, 'b'));
+		store.close();
+
+		// 容量变小，打开时淘汰最久未访问的a.
+		store = DiskLruStore.open(mDir, APP_VERSION, 500);
+		assertFalse(store.contains("a"));
+		store.close();
+
+		store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		assertFalse(store.contains("a"));
+		assertArrayEquals(bytes(400, 'b'), store.get("b"));
+		assertEquals(400, store.size());
+		store.close();
+	}
+
+	@Test
+	public void appVersionChangeDropsEverything() throws IOException {
+		DiskLruStore store = DiskLruStore.open(mDir, APP_VERSION, MAX_SIZE);
+		store.put("a", bytes(10, 'a'));
+		store.close();
+
+		store = DiskLruStore.open(mDir, APP_VERSION + 1, MAX_SIZE);
+		assertNull(store.get("a"));
+		assertEquals(0, store.size());
+		store.close();
+	}
+
+	private void appendJournal(String lines) throws IOException {
+		final FileOutputStream out = new FileOutputStream(new File(mDir, "journal"), true);
+		try {
+			out.write(lines.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] bytes(int length, char c) {
+		final byte[] data = new byte[length];
+		Arrays.fill(data, (byte) c);
+		return data;
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) delete(child);
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 记录日志的回放。直接按文件格式构造出各种损坏、写了一半或被其它进程改写的日志，再用新的实例打开或读取。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class MmapSharedPreferencesTest {
+    private static final String NAME = "test";
+    /*以下与MmapSharedPreferences的文件格式一致*/
+    private static final int MAGIC = 0x574b5632;
+    private static final int HEADER = 32;
+    private static final int OFFSET_SLOT = 4, OFFSET_SLOTS = 8, SLOT_SIZE = 12;
+    private static final int FILE_SIZE = 4096;
+    private static final byte T_INT = 1, T_REMOVE = 7;
+
+    private File mFilesDir;
+    private Context mContext;
+
+    @Before
+    public void setUp() throws IOException {
+        mFilesDir = File.createTempFile("MmapSharedPreferencesTest", "");
+        assertTrue(mFilesDir.delete());
+        assertTrue(new File(mFilesDir, "mmap_prefs").mkdirs());
+        mContext = new MockContext() {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public File getFilesDir() {
+                return mFilesDir;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        delete(mFilesDir);
+    }
+
+    @Test
+    public void truncatedTailRecordIsDropped() throws Exception {
+        final byte[] a = intRecord("a", 1), b = intRecord("b", 2);
+        // 末尾位置已更新，但最后一条记录只写了一部分。
+        writeLog(0, HEADER + a.length + b.length - 3, a, b);
+
+        final MmapSharedPreferences spref = open();
+        assertEquals(1, spref.getInt("a", -1));
+        assertFalse(spref.contains("b"));
+        // 持有写锁打开时截掉损坏的尾部，之后的追加从有效记录的末尾开始。
+        assertEquals(HEADER + a.length, readEnd());
+    }
+
+    @Test
+    public void badCrcStopsReplayAtTheCorruptRecord() throws Exception {
+        final byte[] a = intRecord("a", 1), b = intRecord("b", 2), c = intRecord("c", 3);
+        b[b.length - 5] ^= 0x01;     // 改动值的一个字节，CRC不再匹配。
+        writeLog(0, HEADER + a.length + b.length + c.length, a, b, c);
+
+        final MmapSharedPreferences spref = open();
+        assertEquals(1, spref.getInt("a", -1));
+        // 日志是顺序的，损坏记录之后的记录也不可信。
+        assertFalse(spref.contains("b"));
+        assertFalse(spref.contains("c"));
+        assertEquals(HEADER + a.length, readEnd());
+    }
+
+    @Test
+    public void generationBumpForcesFullReparse() throws Exception {
+        writeLog(0, HEADER + intRecord("a", 1).length, intRecord("a", 1));
+        final MmapSharedPreferences spref = open();
+        assertEquals(1, spref.getInt("a", -1));
+
+        // 其它进程重写了日志，末尾位置恰好与原来相同，只有代数变了。
+        final byte[] b = intRecord("b", 2);
+        writeLog(1, HEADER + b.length, b);
+        assertFalse(spref.contains("a"));
+        assertEquals(2, spref.getInt("b", -1));
+    }
+
+    @Test
+    public void rewriteByAnotherInstanceIsSeenAfterGenerationBump() throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            log.write(intRecord("k", i));
+        }
+        log.write(intRecord("gone", 1));
+        log.write(removeRecord("gone"));
+        log.write(intRecord("other", 7));
+        writeLog(0, HEADER + log.size(), log.toByteArray());
+
+        final MmapSharedPreferences reader = open();
+        final MmapSharedPreferences writer = open();
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("k", 99);
+        expected.put("other", 7);
+        assertEquals(expected, reader.getAll());
+
+        writer.compact();
+        assertEquals(1, readGeneration());
+        assertTrue(readEnd() - readStart() < log.size());
+        // 新日志比已解析的位置短，且代数变了：必须全部重新解析，而不是从原来的位置继续。
+        assertEquals(expected, reader.getAll());
+        assertFalse(reader.contains("gone"));
+    }
+
+    @Test
+    public void compactionLeavesOldLogIntactUntilPublished() throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        for (int i = 0; i < 50; i++) {
+            log.write(intRecord("k", i));
+        }
+        writeLog(0, HEADER + log.size(), log.toByteArray());
+
+        final MmapSharedPreferences spref = open();
+        spref.compact();
+        assertEquals(1, readHeader(OFFSET_SLOT));
+        // 新日志不与旧日志重叠，旧槽位仍指向完整的旧日志。
+        assertTrue(readStart() >= HEADER + log.size());
+        assertEquals(0, readSlot(0, 0));
+        assertEquals(HEADER + log.size(), readSlot(0, 8));
+
+        // 相当于切换槽位之前崩溃：打开时仍是旧日志，数据完整。
+        writeHeader(OFFSET_SLOT, 0);
+        assertEquals(49, open().getInt("k", -1));
+    }
+
+    @Test
+    public void unpublishedSlotIsIgnored() throws Exception {
+        final byte[] a = intRecord("a", 1);
+        writeLog(0, HEADER + a.length, a);
+        // 另一个槽位已写好，但新日志没有写完，也没有切换槽位。
+        final byte[] b = intRecord("b", 2);
+        writeSlot(1, 1, HEADER + a.length, HEADER + a.length + b.length);
+        writeAt(HEADER + a.length, Arrays.copyOf(b, b.length - 3));
+
+        final MmapSharedPreferences spref = open();
+        assertEquals(1, spref.getInt("a", -1));
+        assertFalse(spref.contains("b"));
+    }
+
+    /**
+     * 绕过{@link MmapSharedPreferences#getInstance}的实例缓存，相当于另一个进程打开同一个文件。
+     */
+    private MmapSharedPreferences open() throws Exception {
+        final Constructor<MmapSharedPreferences> constructor =
+                MmapSharedPreferences.class.getDeclaredConstructor(Context.class, String.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(mContext, NAME);
+    }
+
+    private File file() {
+        return new File(new File(mFilesDir, "mmap_prefs"), NAME);
+    }
+
+    private void writeLog(int generation, int end, byte[]... records) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(file(), "rw");
+        try {
+            file.setLength(FILE_SIZE);
+            file.seek(HEADER);
+            for (byte[] record : records) {
+                file.write(record);
+            }
+            file.seek(0);
+            file.writeInt(MAGIC);
+            file.writeInt(0);
+            file.writeInt(generation);
+            file.writeInt(HEADER);
+            file.writeInt(end);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeSlot(int slot, int generation, int start, int end) throws IOException {
+        writeHeader(OFFSET_SLOTS + slot * SLOT_SIZE, generation);
+        writeHeader(OFFSET_SLOTS + slot * SLOT_SIZE + 4, start);
+        writeHeader(OFFSET_SLOTS + slot * SLOT_SIZE + 8, end);
+    }
+
+    private void writeHeader(int offset, int value) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(file(), "rw");
+        try {
+            file.seek(offset);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeAt(int offset, byte[] data) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(file(), "rw");
+        try {
+            file.seek(offset);
+            file.write(data);
+        } finally {
+            file.close();
+        }
+    }
+
+    private int readGeneration() throws IOException {
+        return readSlot(readHeader(OFFSET_SLOT), 0);
+    }
+
+    private int readStart() throws IOException {
+        return readSlot(readHeader(OFFSET_SLOT), 4);
+    }
+
+    private int readEnd() throws IOException {
+        return readSlot(readHeader(OFFSET_SLOT), 8);
+    }
+
+    private int readSlot(int slot, int field) throws IOException {
+        return readHeader(OFFSET_SLOTS + slot * SLOT_SIZE + field);
+    }
+
+    private int readHeader(int offset) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(file(), "r");
+        try {
+            file.seek(offset);
+            return file.readInt();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] intRecord(String key, int value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(T_INT);
+        writeString(body, key);
+        body.writeInt(value);
+        return record(bytes.toByteArray());
+    }
+
+    private static byte[] removeRecord(String key) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(T_REMOVE);
+        writeString(body, key);
+        return record(bytes.toByteArray());
+    }
+
+    /**
+     * 长度 + 内容 + 内容的CRC32.
+     */
+    private static byte[] record(byte[] body) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 开放寻址表的删除（向前移位）、探测链绕回表头、LRU淘汰顺序和空闲条目的复用。
+ * <p>
+ * initialCapacity为4时哈希表长度为8, 条目不超过4条就不会扩容，便于构造指定槽位的冲突。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class IntLruCacheTest {
+    private static final int TABLE_LENGTH = 8;
+
+    @Test
+    public void deleteInsideProbeChainKeepsLaterKeysReachable() throws Exception {
+        final int[] k = keysAtSlot(3, 3);
+        final IntLruCache<String> cache = new IntLruCache<>(100, 4);
+        for (int key : k) cache.put(key, "v" + key);
+
+        // 删除链的中间，之后的条目要前移，否则查找会停在空槽。
+        assertEquals("v" + k[1], cache.remove(k[1]));
+        assertEquals("v" + k[0], cache.get(k[0]));
+        assertEquals("v" + k[2], cache.get(k[2]));
+        assertFalse(cache.containsKey(k[1]));
+
+        // 再删除链头。
+        assertEquals("v" + k[0], cache.remove(k[0]));
+        assertEquals("v" + k[2], cache.get(k[2]));
+        cache.put(k[1], "again");
+        assertEquals("again", cache.get(k[1]));
+        assertEquals(2, cache.count());
+    }
+
+    @Test
+    public void probeChainWrapsAroundTheTable() throws Exception {
+        final int[] last = keysAtSlot(TABLE_LENGTH - 1, 2);
+        final int first = keysAtSlot(0, 1)[0];
+        final IntLruCache<String> cache = new IntLruCache<>(100, 4);
+        // 槽位：last[0] -> 7, last[1] -> 0（绕回）, first -> 1.
+        cache.put(last[0], "a");
+        cache.put(last[1], "b");
+        cache.put(first, "c");
+
+        cache.remove(last[0]);
+        assertEquals("b", cache.get(last[1]));
+        assertEquals("c", cache.get(first));
+
+        cache.remove(last[1]);
+        assertEquals("c", cache.get(first));
+        assertNull(cache.get(last[0]));
+        assertNull(cache.get(last[1]));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() {
+        final List<Integer> evicted = new ArrayList<>();
+        final IntLruCache<String> cache = new IntLruCache<String>(3) {
+            @Override
+            protected void entryRemoved(boolean isEvicted, int key, String oldValue, String newValue) {
+                if (isEvicted) evicted.add(key);
+            }
+        };
+        cache.put(1, "1");
+        cache.put(2, "2");
+        cache.put(3, "3");
+        cache.get(1);
+        cache.put(4, "4");
+        assertEquals(Arrays.asList(2), evicted);
+        assertEquals(Arrays.asList(3, 1, 4), new ArrayList<>(cache.snapshot().keySet()));
+
+        // 替换也算访问。
+        cache.put(3, "3'");
+        cache.put(5, "5");
+        assertEquals(Arrays.asList(2, 1), evicted);
+        assertEquals(Arrays.asList(4, 3, 5), new ArrayList<>(cache.snapshot().keySet()));
+        assertEquals(2, cache.evictionCount());
+    }
+
+    @Test
+    public void freedEntriesAreReused() throws Exception {
+        final IntLruCache<String> cache = new IntLruCache<>(100, 4);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 4; i++) cache.put(round * 4 + i, "v" + i);
+            for (int i = 0; i < 4; i++) assertEquals("v" + i, cache.remove(round * 4 + i));
+        }
+        assertEquals(0, cache.count());
+        assertEquals(4, entryCapacity(cache));
+
+        // 复用的条目重新链入LRU链表的末尾。
+        cache.put(1, "1");
+        cache.put(2, "2");
+        cache.remove(1);
+        cache.put(3, "3");
+        assertEquals(Arrays.asList(2, 3), new ArrayList<>(cache.snapshot().keySet()));
+        assertEquals(4, entryCapacity(cache));
+    }
+
+    @Test
+    public void growthRehashesAllEntries() {
+        final IntLruCache<Integer> cache = new IntLruCache<>(1000, 4);
+        for (int i = 0; i < 500; i++) cache.put(i * 31, i);
+        for (int i = 0; i < 500; i += 2) cache.remove(i * 31);
+        for (int i = 0; i < 500; i++) {
+            if (i % 2 == 0) assertFalse(cache.containsKey(i * 31));
+            else assertEquals(i, (long) cache.get(i * 31));
+        }
+        assertEquals(250, cache.size());
+        assertTrue(cache.toString().startsWith("IntLruCache["));
+    }
+
+    /**
+     * 找出count个在长度为{@link #TABLE_LENGTH}的表中理想槽位为slot的key.
+     */
+    private static int[] keysAtSlot(int slot, int count) throws Exception {
+        final Method hash = IntLruCache.class.getDeclaredMethod("hash", int.class);
+        hash.setAccessible(true);
+        final int[] keys = new int[count];
+        for (int key = 1, n = 0; n < count; key++) {
+            if (((Integer) hash.invoke(null, key) & (TABLE_LENGTH - 1)) == slot) keys[n++] = key;
+        }
+        return keys;
+    }
+
+    private static int entryCapacity(IntLruCache<?> cache) throws Exception {
+        final Field keys = IntLruCache.class.getDeclaredField("keys");
+        keys.setAccessible(true);
+        return ((int[]) keys.get(cache)).length;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 开放寻址表的删除（向前移位）、探测链绕回表头、LRU淘汰顺序和空闲条目的复用。
+ * <p>
+ * initialCapacity为4时哈希表长度为8, 条目不超过4条就不会扩容，便于构造指定槽位的冲突。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class LongLruCacheTest {
+    private static final int TABLE_LENGTH = 8;
+
+    @Test
+    public void deleteInsideProbeChainKeepsLaterKeysReachable() throws Exception {
+        final long[] k = keysAtSlot(3, 3);
+        final LongLruCache<String> cache = new LongLruCache<>(100, 4);
+        for (long key : k) cache.put(key, "v" + key);
+
+        // 删除链的中间，之后的条目要前移，否则查找会停在空槽。
+        assertEquals("v" + k[1], cache.remove(k[1]));
+        assertEquals("v" + k[0], cache.get(k[0]));
+        assertEquals("v" + k[2], cache.get(k[2]));
+        assertFalse(cache.containsKey(k[1]));
+
+        // 再删除链头。
+        assertEquals("v" + k[0], cache.remove(k[0]));
+        assertEquals("v" + k[2], cache.get(k[2]));
+        cache.put(k[1], "again");
+        assertEquals("again", cache.get(k[1]));
+        assertEquals(2, cache.count());
+    }
+
+    @Test
+    public void probeChainWrapsAroundTheTable() throws Exception {
+        final long[] last = keysAtSlot(TABLE_LENGTH - 1, 2);
+        final long first = keysAtSlot(0, 1)[0];
+        final LongLruCache<String> cache = new LongLruCache<>(100, 4);
+        // 槽位：last[0] -> 7, last[1] -> 0（绕回）, first -> 1.
+        cache.put(last[0], "a");
+        cache.put(last[1], "b");
+        cache.put(first, "c");
+
+        cache.remove(last[0]);
+        assertEquals("b", cache.get(last[1]));
+        assertEquals("c", cache.get(first));
+
+        cache.remove(last[1]);
+        assertEquals("c", cache.get(first));
+        assertNull(cache.get(last[0]));
+        assertNull(cache.get(last[1]));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() {
+        final List<Long> evicted = new ArrayList<>();
+        final LongLruCache<String> cache = new LongLruCache<String>(3) {
+            @Override
+            protected void entryRemoved(boolean isEvicted, long key, String oldValue, String newValue) {
+                if (isEvicted) evicted.add(key);
+            }
+        };
+        cache.put(1, "1");
+        cache.put(2, "2");
+        cache.put(3, "3");
+        cache.get(1);
+        cache.put(4, "4");
+        assertEquals(Arrays.asList(2L), evicted);
+        assertEquals(Arrays.asList(3L, 1L, 4L), new ArrayList<>(cache.snapshot().keySet()));
+
+        // 替换也算访问。
+        cache.put(3, "3'");
+        cache.put(5, "5");
+        assertEquals(Arrays.asList(2L, 1L), evicted);
+        assertEquals(Arrays.asList(4L, 3L, 5L), new ArrayList<>(cache.snapshot().keySet()));
+        assertEquals(2, cache.evictionCount());
+    }
+
+    @Test
+    public void freedEntriesAreReused() throws Exception {
+        final LongLruCache<String> cache = new LongLruCache<>(100, 4);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 4; i++) cache.put(round * 4 + i, "v" + i);
+            for (int i = 0; i < 4; i++) assertEquals("v" + i, cache.remove(round * 4 + i));
+        }
+        assertEquals(0, cache.count());
+        assertEquals(4, entryCapacity(cache));
+
+        // 复用的条目重新链入LRU链表的末尾。
+        cache.put(1, "1");
+        cache.put(2, "2");
+        cache.remove(1);
+        cache.put(3, "3");
+        assertEquals(Arrays.asList(2L, 3L), new ArrayList<>(cache.snapshot().keySet()));
+        assertEquals(4, entryCapacity(cache));
+    }
+
+    @Test
+    public void growthRehashesAllEntries() {
+        final LongLruCache<Integer> cache = new LongLruCache<>(1000, 4);
+        // 只有高32位不同的key.
+        for (int i = 0; i < 500; i++) cache.put((long) i << 32, i);
+        for (int i = 0; i < 500; i += 2) cache.remove((long) i << 32);
+        for (int i = 0; i < 500; i++) {
+            if (i % 2 == 0) assertFalse(cache.containsKey((long) i << 32));
+            else assertEquals(i, (long) cache.get((long) i << 32));
+        }
+        assertEquals(250, cache.size());
+        assertTrue(cache.toString().startsWith("LongLruCache["));
+    }
+
+    /**
+     * 找出count个在长度为{@link #TABLE_LENGTH}的表中理想槽位为slot的key.
+     */
+    private static long[] keysAtSlot(int slot, int count) throws Exception {
+        final Method hash = LongLruCache.class.getDeclaredMethod("hash", long.class);
+        hash.setAccessible(true);
+        final long[] keys = new long[count];
+        int n = 0;
+        for (long key = 1L << 40; n < count; key++) {
+            if (((Integer) hash.invoke(null, key) & (TABLE_LENGTH - 1)) == slot) keys[n++] = key;
+        }
+        return keys;
+    }
+
+    private static int entryCapacity(LongLruCache<?> cache) throws Exception {
+        final Field keys = LongLruCache.class.getDeclaredField("keys");
+        keys.setAccessible(true);
+        return ((long[]) keys.get(cache)).length;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hobby.wei.c.exception.CacheLoadTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ICache.Impl.SingleFlight}: 同一个key的并发加载只执行一次，结果或异常由所有等待者共享，等待可以超时。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class SingleFlightTest {
+    private static final int THREADS = 4;
+
+    private ExecutorService mExecutor;
+    /** 加载开始后阻塞在这里，直到测试放行。 */
+    private CountDownLatch mRelease;
+    private CountDownLatch mLoading;
+    private final AtomicInteger mLoads = new AtomicInteger();
+    private final List<Collection<String>> mBatches = new ArrayList<>();
+    private volatile RuntimeException mFailure;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newCachedThreadPool();
+        mRelease = new CountDownLatch(1);
+        mLoading = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentGetsShareOneLoad() throws Exception {
+        final ICache<String, String> cache = newCache(0);
+        final List<Future<String>> results = submitGets(cache, "k", THREADS);
+        awaitWaiters(THREADS);
+        mRelease.countDown();
+        for (Future<String> result : results) {
+            assertEquals("K", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, mLoads.get());
+        // 之后直接命中缓存。
+        assertEquals("K", cache.get("k"));
+        assertEquals(1, mLoads.get());
+    }
+
+    @Test
+    public void exceptionIsSharedAndNotCached() throws Exception {
+        final ICache<String, String> cache = newCache(0);
+        mFailure = new IllegalStateException("boom");
+        final List<Future<String>> results = submitGets(cache, "k", THREADS);
+        awaitWaiters(THREADS);
+        mRelease.countDown();
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("应抛出加载的异常");
+            } catch (ExecutionException e) {
+                assertSame(mFailure, e.getCause());
+            }
+        }
+        assertEquals(1, mLoads.get());
+
+        mFailure = null;
+        assertEquals("K", cache.get("k"));
+        assertEquals(2, mLoads.get());
+    }
+
+    @Test
+    public void waiterTimesOutWhileLoaderContinues() throws Exception {
+        final ICache<String, String> cache = newCache(50);
+        final Future<String> loader = submitGets(cache, "k", 1).get(0);
+        assertTrue(mLoading.await(5, TimeUnit.SECONDS));
+        try {
+            cache.get("k");
+            fail("应等待超时");
+        } catch (CacheLoadTimeoutException e) {
+            // 预期。
+        }
+        mRelease.countDown();
+        assertEquals("K", loader.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mLoads.get());
+    }
+
+    @Test
+    public void getAllJoinsInFlightLoadsAndBatchesTheRest() throws Exception {
+        final ICache<String, String> cache = newCache(0);
+        final Future<String> loader = submitGets(cache, "a", 1).get(0);
+        assertTrue(mLoading.await(5, TimeUnit.SECONDS));
+        final Future<Map<String, String>> all = mExecutor.submit(new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() {
+                return cache.getAll(Arrays.asList("a", "b", "c"));
+            }
+        });
+        awaitWaiters(2);
+        mRelease.countDown();
+
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("a", "A");
+        expected.put("b", "B");
+        expected.put("c", "C");
+        assertEquals(expected, all.get(5, TimeUnit.SECONDS));
+        assertEquals("A", loader.get(5, TimeUnit.SECONDS));
+        // a由单个加载完成，b和c在一次批量加载中。
+        synchronized (mBatches) {
+            assertEquals(1, mBatches.size());
+            assertEquals(Arrays.asList("b", "c"), new ArrayList<>(mBatches.get(0)));
+        }
+    }
+
+    private ICache<String, String> newCache(long timeoutMillis) {
+        return new ICache.Impl.SingleFlight<>(100, new ICache.BatchDelegate<String, String>() {
+            @Override
+            public String load(String key) {
+                mLoads.incrementAndGet();
+                block();
+                if (mFailure != null) throw mFailure;
+                return key.toUpperCase();
+            }
+
+            @Override
+            public Map<String, String> loadAll(Collection<String> keys) {
+                synchronized (mBatches) {
+                    mBatches.add(new ArrayList<>(keys));
+                }
+                block();
+                final Map<String, String> values = new HashMap<>();
+                for (String key : keys) values.put(key, key.toUpperCase());
+                return values;
+            }
+
+            @Override
+            public boolean update(String key, String value) {
+                return true;
+            }
+        }, false, timeoutMillis);
+    }
+
+    private void block() {
+        mLoading.countDown();
+        try {
+            mRelease.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Future<String>> submitGets(final ICache<String, String> cache, final String key, int count) {
+        final List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(mExecutor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return cache.get(key);
+                }
+            }));
+        }
+        return results;
+    }
+
+    /**
+     * 等待count个线程阻塞（一个在加载中，其余在等待它的结果）。
+     */
+    private static void awaitWaiters(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            int blocked = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                final Thread.State state = thread.getState();
+                if ((state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING) && isInCache(thread)) blocked++;
+            }
+            if (blocked >= count) return;
+            Thread.sleep(5);
+        }
+        fail("等待线程阻塞超时");
+    }
+
+    private static boolean isInCache(Thread thread) {
+        for (StackTraceElement element : thread.getStackTrace()) {
+            if (element.getClassName().startsWith(ICache.class.getName())) return true;
+        }
+        return false;
+    }
+}
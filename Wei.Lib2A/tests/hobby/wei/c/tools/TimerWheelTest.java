@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 时间轮：key在且只在第一次推进到deadline或之后时取出，跨越各层（以及超出最高层范围）时逐层下放而不丢失、不提前。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class TimerWheelTest {
+    /*各层一整圈的跨度：64个桶，每个桶分别为2^10, 2^16, 2^22, 2^28毫秒*/
+    private static final long LEVEL0 = 64L << 10, LEVEL1 = 64L << 16, LEVEL2 = 64L << 22, LEVEL3 = 64L << 28;
+
+    @Test
+    public void notExpiredBeforeDeadlineInTheSameBucket() {
+        final TimerWheel<String> wheel = new TimerWheel<>(0);
+        wheel.schedule("a", 500);
+        assertEquals(Collections.<String>emptyList(), wheel.advance(499));
+        assertEquals(Collections.singletonList("a"), wheel.advance(500));
+        // 已取出的不会再次出现。
+        assertEquals(Collections.<String>emptyList(), wheel.advance(LEVEL1));
+    }
+
+    @Test
+    public void cascadesThroughEveryLevel() {
+        final TimerWheel<String> wheel = new TimerWheel<>(0);
+        final Map<String, Long> deadlines = new HashMap<>();
+        deadlines.put("level0", LEVEL0 - 1000);
+        deadlines.put("level1", LEVEL1 - 1000);
+        deadlines.put("level2", LEVEL2 - 1000);
+        deadlines.put("level3", LEVEL3 - 1000);
+        deadlines.put("beyond", LEVEL3 * 3 + 12345);
+        for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+            wheel.schedule(entry.getKey(), entry.getValue());
+        }
+
+        final List<Long> sorted = new ArrayList<>(deadlines.values());
+        Collections.sort(sorted);
+        for (long deadline : sorted) {
+            // 推进到刚好差1毫秒：高层的桶到期，key被下放到低层，但不能被取出。
+            assertEquals(Collections.<String>emptyList(), wheel.advance(deadline - 1));
+            final List<String> expired = wheel.advance(deadline);
+            assertEquals(1, expired.size());
+            assertEquals(deadline, (long) deadlines.get(expired.get(0)));
+        }
+    }
+
+    @Test
+    public void randomStepsNeverExpireEarlyOrLate() {
+        final Random random = new Random(20261017);
+        final TimerWheel<Integer> wheel = new TimerWheel<>(0);
+        final Map<Integer, Long> deadlines = new HashMap<>();
+        for (int key = 0; key < 2000; key++) {
+            // 各层都有：指数分布在1毫秒到约2^33毫秒之间。
+            final long deadline = 1 + (long) Math.pow(2, random.nextDouble() * 33);
+            deadlines.put(key, deadline);
+            wheel.schedule(key, deadline);
+        }
+        long now = 0;
+        while (!deadlines.isEmpty()) {
+            now += 1 + (long) Math.pow(2, random.nextDouble() * 26);
+            for (int key : wheel.advance(now)) {
+                final Long deadline = deadlines.remove(key);
+                assertTrue(deadline != null && deadline <= now);
+            }
+            for (long deadline : deadlines.values()) {
+                assertTrue(deadline > now);
+            }
+        }
+    }
+
+    @Test
+    public void rescheduleAndCancel() {
+        final TimerWheel<String> wheel = new TimerWheel<>(0);
+        wheel.schedule("a", 5000);
+        wheel.schedule("b", 5000);
+        wheel.schedule("a", LEVEL1);
+        wheel.cancel("b");
+        assertEquals(Collections.<String>emptyList(), wheel.advance(LEVEL1 - 1));
+        assertEquals(Collections.singletonList("a"), wheel.advance(LEVEL1));
+
+        wheel.schedule("c", LEVEL1 + 10);
+        wheel.clear();
+        assertEquals(Collections.<String>emptyList(), wheel.advance(LEVEL2));
+    }
+
+    @Test
+    public void pastDeadlineExpiresOnNextAdvance() {
+        final TimerWheel<String> wheel = new TimerWheel<>(LEVEL1);
+        wheel.schedule("late", 10);
+        assertEquals(Collections.singletonList("late"), wheel.advance(LEVEL1 + 1));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * W-TinyLFU的准入（一次性的扫描不能挤掉热点数据）和衰减（热点转移之后，旧的热点终会让位）。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class TinyLfuPolicyTest {
+    private static final int MAX_SIZE = 100;
+    private static final int HOT = 50;
+
+    @Test
+    public void scanDoesNotFlushHotKeys() {
+        final LruCache<Integer, Integer> cache = new LruCache<>(MAX_SIZE, new TinyLfuPolicy<Integer>());
+        for (int round = 0; round < 5; round++) {
+            access(cache, 0, HOT);
+        }
+        // 只访问一次的冷数据，数量是容量的10倍。
+        access(cache, 10000, 10 * MAX_SIZE);
+
+        assertTrue(cached(cache, 0, HOT) >= HOT * 9 / 10);
+        assertTrue(cache.size() <= MAX_SIZE);
+    }
+
+    @Test
+    public void plainLruIsFlushedByTheSameScan() {
+        final LruCache<Integer, Integer> cache = new LruCache<>(MAX_SIZE);
+        for (int round = 0; round < 5; round++) {
+            access(cache, 0, HOT);
+        }
+        access(cache, 10000, 10 * MAX_SIZE);
+
+        assertEquals(0, cached(cache, 0, HOT));
+    }
+
+    @Test
+    public void oldHotKeysAgeOutAfterTheWorkloadShifts() {
+        final LruCache<Integer, Integer> cache = new LruCache<>(MAX_SIZE, new TinyLfuPolicy<Integer>());
+        // 新旧两组热点放不下，新的只能挤掉旧的。
+        final int hot = MAX_SIZE * 4 / 5;
+        // 旧热点的计数饱和（4bit, 最大15）。
+        for (int round = 0; round < 20; round++) {
+            access(cache, 0, hot);
+        }
+        // 没有衰减的话，新热点的计数最多与旧热点持平，而持平时不准入，就永远进不来。
+        for (int round = 0; round < 60; round++) {
+            access(cache, 1000, hot);
+        }
+
+        assertTrue(cached(cache, 1000, hot) >= hot * 9 / 10);
+        assertTrue(cache.size() <= MAX_SIZE);
+    }
+
+    /**
+     * 按缓存的常规用法访问：未命中则放入。
+     */
+    private static void access(LruCache<Integer, Integer> cache, int from, int count) {
+        for (int key = from; key < from + count; key++) {
+            if (cache.get(key) == null) cache.put(key, key);
+        }
+    }
+
+    private static int cached(LruCache<Integer, Integer> cache, int from, int count) {
+        int n = 0;
+        for (int key = from; key < from + count; key++) {
+            if (cache.containsKey(key)) n++;
+        }
+        return n;
+    }
+}